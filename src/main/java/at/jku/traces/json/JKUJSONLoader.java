@@ -14,17 +14,26 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import org.danilopianini.io.FileUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.array.TDoubleArrayList;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.implementations.MappedGPSTrace;
 import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.utils.TraceUtils;
 
 /**
  */
@@ -33,6 +42,11 @@ public final class JKUJSONLoader implements Serializable {
     private static final long serialVersionUID = 7144531714361675479L;
     private static final Gson GSON = new Gson();
     private static final Logger L = LoggerFactory.getLogger(JKUJSONLoader.class);
+    /*
+     * Lines parsed in parallel at once: bounds the memory used by the
+     * conversion.
+     */
+    private static final int BATCH_SIZE = 4096;
 
     /**
      * @param f
@@ -56,35 +70,177 @@ public final class JKUJSONLoader implements Serializable {
         }
     }
 
+    /**
+     * Converts a JKU JSON dump, one {@link UserTrace} per line, to the binary
+     * format of {@link MappedGPSTrace}. Traces get their line number as id,
+     * and times are shifted so that the earliest trace starts at zero. The
+     * source is streamed twice, and parsed in parallel a batch of lines at a
+     * time, so that memory usage does not depend on its size.
+     * 
+     * @param source
+     *            the JSON file
+     * @param dest
+     *            the binary trace file to write
+     * @throws IOException
+     *             if there is an I/O error, or the source is malformed
+     */
+    public static void convert(final File source, final File dest) throws IOException {
+        convert(source, dest, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Converts a JKU JSON dump, one {@link UserTrace} per line, to the binary
+     * format of {@link MappedGPSTrace}, simplifying the traces with
+     * {@link TraceUtils#simplify(IGPSTrace, double, double)}. Traces get their
+     * line number as id, and times are shifted so that the earliest trace
+     * starts at zero. The source is streamed twice, and parsed in parallel a
+     * batch of lines at a time, so that memory usage does not depend on its
+     * size.
+     * 
+     * @param source
+     *            the JSON file
+     * @param dest
+     *            the binary trace file to write
+     * @param maxDistance
+     *            the maximum spatial error, in meters. If NaN, traces are
+     *            not simplified.
+     * @param maxTimeError
+     *            the maximum time error
+     * @throws IOException
+     *             if there is an I/O error, or the source is malformed
+     */
+    public static void convert(final File source, final File dest, final double maxDistance, final double maxTimeError) throws IOException {
+        final double[] minTime = { Double.POSITIVE_INFINITY };
+        final int[] count = new int[1];
+        forEachBatch(source, batch -> {
+            for (final ColumnarGPSTrace trace : batch) {
+                if (trace.size() > 0) {
+                    minTime[0] = Math.min(minTime[0], trace.getStartTime());
+                }
+            }
+            count[0] += batch.size();
+        });
+        final double offset = Double.isInfinite(minTime[0]) ? 0 : minTime[0];
+        final long[] samples = new long[2];
+        try (MappedGPSTrace.Writer out = new MappedGPSTrace.Writer(dest)) {
+            forEachBatch(source, batch -> {
+                final List<ColumnarGPSTrace> simplified = Double.isNaN(maxDistance) ? batch : batch.parallelStream()
+                        .map(trace -> TraceUtils.simplify(trace, maxDistance, maxTimeError))
+                        .collect(Collectors.toList());
+                for (int i = 0; i < batch.size(); i++) {
+                    final ColumnarGPSTrace trace = simplified.get(i);
+                    samples[0] += batch.get(i).size();
+                    samples[1] += trace.size();
+                    trace.normalizeTimes(offset);
+                    out.append(trace);
+                }
+            });
+        }
+        L.info("{} traces converted from {} to {}", count[0], source, dest);
+        if (!Double.isNaN(maxDistance)) {
+            L.info("{} samples out of {} kept, compression ratio {}", samples[1], samples[0], (double) samples[0] / Math.max(1, samples[1]));
+        }
+    }
+
+    private static void forEachBatch(final File source, final BatchConsumer consumer) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(source), Charsets.UTF_8))) {
+            final List<String> lines = new ArrayList<>(BATCH_SIZE);
+            int id = 0;
+            for (String line = in.readLine(); line != null || !lines.isEmpty(); line = in.readLine()) {
+                if (line != null && !line.trim().isEmpty()) {
+                    lines.add(line);
+                }
+                if (line == null || lines.size() == BATCH_SIZE) {
+                    final int first = id;
+                    try {
+                        consumer.accept(IntStream.range(0, lines.size())
+                                .parallel()
+                                .mapToObj(i -> parse(first + i, lines.get(i)))
+                                .collect(Collectors.toList()));
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    id += lines.size();
+                    lines.clear();
+                    if (line == null) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Reads a serialized UserTrace straight into primitive arrays.
+     */
+    private static ColumnarGPSTrace parse(final int id, final String line) {
+        final TDoubleList latitudes = new TDoubleArrayList();
+        final TDoubleList longitudes = new TDoubleArrayList();
+        final TDoubleList times = new TDoubleArrayList();
+        try (JsonReader in = new JsonReader(new StringReader(line))) {
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("trace".equals(in.nextName())) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        double lat = Double.NaN;
+                        double lon = Double.NaN;
+                        double time = Double.NaN;
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            switch (in.nextName()) {
+                            case "la":
+                                lat = in.nextDouble();
+                                break;
+                            case "lo":
+                                lon = in.nextDouble();
+                                break;
+                            case "t":
+                                time = in.nextDouble();
+                                break;
+                            default:
+                                in.skipValue();
+                            }
+                        }
+                        in.endObject();
+                        latitudes.add(lat);
+                        longitudes.add(lon);
+                        times.add(time);
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(new IOException("Unable to parse trace " + id, e));
+        }
+        return new ColumnarGPSTrace(id, latitudes.toArray(), longitudes.toArray(), times.toArray());
+    }
+
     /**
      * @param args
      *            the first argument must be the input file path, the second
-     *            argument must be the output
+     *            argument must be the output. The optional third and fourth
+     *            arguments are the maximum spatial (in meters) and time
+     *            errors allowed when simplifying the traces.
      * @throws IOException
      *             if there is an I/O error
      */
     public static void main(final String[] args) throws IOException {
-        if (args.length != 2) {
-            L.error("Usage: java " + JKUJSONLoader.class.getCanonicalName() + " source dest");
+        if (args.length < 2 || args.length > 4) {
+            L.error("Usage: java " + JKUJSONLoader.class.getCanonicalName() + " source dest [maxDistance [maxTimeError]]");
             System.exit(1);
         }
-        final String source = args[0];
-        final String dest = args[1];
-        final List<? extends IGPSTrace> l = loadJsonObjects(new File(source), UserTrace.class);
-        double mintime = Double.MAX_VALUE;
-        for (int i = 0; i < l.size(); i++) {
-            final IGPSTrace p = l.get(i);
-            p.setId(i);
-            final double time = p.getStartTime();
-            if (time < mintime) {
-                mintime = time;
-            }
-        }
-        for (int i = 0; i < l.size(); i++) {
-            final IGPSTrace p = l.get(i);
-            p.normalizeTimes(mintime);
-        }
-        FileUtilities.objectToFile((Serializable) l, dest, false);
+        final double maxDistance = args.length > 2 ? Double.parseDouble(args[2]) : Double.NaN;
+        final double maxTimeError = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        convert(new File(args[0]), new File(args[1]), maxDistance, maxTimeError);
+    }
+
+    @FunctionalInterface
+    private interface BatchConsumer {
+        void accept(List<ColumnarGPSTrace> batch) throws IOException;
     }
 
     /**
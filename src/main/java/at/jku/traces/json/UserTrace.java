@@ -8,12 +8,16 @@
  */
 package at.jku.traces.json;
 
+import it.unibo.alchemist.model.implementations.GPSTraceCursor;
+import it.unibo.alchemist.model.implementations.GPSTraceView;
 import it.unibo.alchemist.model.interfaces.IGPSPoint;
 import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.utils.MapUtils;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 import java.util.List;
 
@@ -31,39 +35,67 @@ public class UserTrace implements IGPSTrace {
     private int mi;
     private final GPSPoint[] trace;
     private double len = Double.NaN;
+    /*
+     * Subtracted to the times of the points, which are never modified
+     */
+    private double timeOffset;
 
     /**
      * 
      * @param id
      *            user id
      * @param tr
-     *            GPS points
+     *            GPS points. They get sorted by time.
      */
     public UserTrace(final int id, final GPSPoint[] tr) {
         mi = id;
         trace = Arrays.copyOf(tr, tr.length);
+        Arrays.sort(trace);
     }
 
     /**
      * @param id
      *            user id
      * @param tr
-     *            GPS points
+     *            GPS points. They get sorted by time.
      */
     public UserTrace(final int id, final List<GPSPoint> tr) {
         mi = id;
         trace = tr.toArray(new GPSPoint[tr.size()]);
+        Arrays.sort(trace);
+    }
+
+    /*
+     * Shares the points of the source, but keeps its own time offset.
+     */
+    private UserTrace(final UserTrace source) {
+        mi = source.mi;
+        trace = source.trace;
+        timeOffset = source.timeOffset;
+    }
+
+    @Override
+    public IGPSTraceCursor cursor() {
+        return new GPSTraceCursor(this);
     }
 
+    /**
+     * @return a {@link GPSTraceView} on this trace: no point gets copied.
+     *         Normalizing the times of this trace does not affect the view
+     */
     @Override
     public IGPSTrace filter(final double time) {
-        final List<GPSPoint> pts = new ArrayList<>(trace.length);
-        for (final GPSPoint tr : trace) {
-            if (tr.getTime() >= time) {
-                pts.add(new GPSPoint(tr.getLatitude(), tr.getLongitude(), tr.getTime() - time));
+        int low = 0;
+        int high = trace.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getTime(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        return new UserTrace(getId(), pts);
+        return new GPSTraceView(new UserTrace(this), low, time);
     }
 
     @Override
@@ -71,12 +103,27 @@ public class UserTrace implements IGPSTrace {
         return mi;
     }
 
+    @Override
+    public double getLatitude(final int index) {
+        return trace[index].getLatitude();
+    }
+
+    @Override
+    public double getLongitude(final int index) {
+        return trace[index].getLongitude();
+    }
+
     @Override
     public IGPSPoint getNextPosition(final double time) {
         if (trace.length == 0) {
             return FAILURE;
         }
-        return searchPoint(time).getSecond();
+        return shifted(searchPoint(time + timeOffset).getSecond());
+    }
+
+    @Override
+    public IGPSPoint getPoint(final int index) {
+        return shifted(trace[index]);
     }
 
     @Override
@@ -84,28 +131,33 @@ public class UserTrace implements IGPSTrace {
         if (trace.length == 0) {
             return FAILURE;
         }
-        return searchPoint(time).getFirst();
+        return shifted(searchPoint(time + timeOffset).getFirst());
     }
 
     @Override
     public double getStartTime() {
-        sort();
         if (trace.length > 0) {
-            return trace[0].getTime();
+            return getTime(0);
         }
         return Double.NaN;
     }
 
+    @Override
+    public double getTime(final int index) {
+        return trace[index].getTime() - timeOffset;
+    }
+
     @Override
     public IGPSPoint interpolate(final double time) {
-        final Pair<IGPSPoint, IGPSPoint> coords = searchPoint(time);
+        final double sourceTime = time + timeOffset;
+        final Pair<IGPSPoint, IGPSPoint> coords = searchPoint(sourceTime);
         final IGPSPoint prev = coords.getFirst();
         final IGPSPoint next = coords.getSecond();
         final double tdtime = next.getTime() - prev.getTime();
         if (tdtime == 0) {
-            return next;
+            return shifted(next);
         }
-        final double ratio = (time - prev.getTime()) / tdtime;
+        final double ratio = (sourceTime - prev.getTime()) / tdtime;
         final Position start = prev.toPosition();
         final Position end = next.toPosition();
         final double dist = MapUtils.getDistance(start, end);
@@ -125,9 +177,17 @@ public class UserTrace implements IGPSTrace {
 
     @Override
     public void normalizeTimes(final double initialTime) {
-        for (final IGPSPoint p : trace) {
-            p.setTime(p.getTime() - initialTime);
+        timeOffset += initialTime;
+    }
+
+    /*
+     * Points are returned as they are, unless their times are shifted.
+     */
+    private IGPSPoint shifted(final IGPSPoint point) {
+        if (timeOffset == 0) {
+            return point;
         }
+        return new GPSPoint(point.getLatitude(), point.getLongitude(), point.getTime() - timeOffset);
     }
 
     private Pair<IGPSPoint, IGPSPoint> searchPoint(final double time) {
@@ -152,6 +212,14 @@ public class UserTrace implements IGPSTrace {
         return new Pair<>(trace[low], trace[high]);
     }
 
+    /*
+     * Traces serialized by older versions may not be sorted.
+     */
+    private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        Arrays.sort(trace);
+    }
+
     @Override
     public void setId(final int i) {
         mi = i;
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.interfaces.IGPSPoint;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.utils.MapUtils;
+
+import org.danilopianini.lang.HashUtils;
+
+import at.jku.traces.json.UserTrace;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Base class for {@link IGPSTrace}s which store their points as primitive
+ * values, and can access them by index. Points are kept sorted by time, and
+ * {@link IGPSPoint}s are only built when requested, as read only views on
+ * the trace.
+ */
+public abstract class AbstractGPSTrace implements IGPSTrace {
+
+    private static final long serialVersionUID = -1468472452541339618L;
+    private int id;
+    private double len = Double.NaN;
+
+    /**
+     * @param id
+     *            the node id
+     */
+    protected AbstractGPSTrace(final int id) {
+        this.id = id;
+    }
+
+    @Override
+    public IGPSTraceCursor cursor() {
+        return new GPSTraceCursor(this);
+    }
+
+    /**
+     * @return a {@link GPSTraceView} on this trace: no point gets copied
+     */
+    @Override
+    public IGPSTrace filter(final double time) {
+        return new GPSTraceView(this, firstIndexFrom(time), time);
+    }
+
+    /**
+     * @param time
+     *            the time
+     * @return the index of the first point whose time is not lower than the
+     *         passed one, or the size of this trace if there is none
+     */
+    protected final int firstIndexFrom(final double time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getTime(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public IGPSPoint getNextPosition(final double time) {
+        if (size() == 0) {
+            return UserTrace.FAILURE;
+        }
+        return getPoint(nextIndex(time));
+    }
+
+    /**
+     * @param index
+     *            the index of the point
+     * @return a view on the index-th point of this trace
+     */
+    @Override
+    public IGPSPoint getPoint(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(index + " is not in [0, " + size() + ")");
+        }
+        return new PointView(index);
+    }
+
+    @Override
+    public IGPSPoint getPreviousPosition(final double time) {
+        if (size() == 0) {
+            return UserTrace.FAILURE;
+        }
+        return getPoint(previousIndex(time));
+    }
+
+    @Override
+    public double getStartTime() {
+        if (size() > 0) {
+            return getTime(0);
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public IGPSPoint interpolate(final double time) {
+        return GPSTraceCursor.interpolate(this, previousIndex(time), nextIndex(time), time);
+    }
+
+    @Override
+    public double length() {
+        if (Double.isNaN(len)) {
+            double total = 0;
+            for (int i = 0; i < size() - 1; i++) {
+                total += MapUtils.getDistance(getLatitude(i), getLongitude(i), getLatitude(i + 1), getLongitude(i + 1));
+            }
+            len = total;
+        }
+        return len;
+    }
+
+    /**
+     * @param time
+     *            the time
+     * @return the index of the point preceding the passed time
+     */
+    protected final int previousIndex(final double time) {
+        if (size() < 3 || time < getTime(0)) {
+            return 0;
+        }
+        if (time > getTime(size() - 1)) {
+            return size() - 1;
+        }
+        return search(time);
+    }
+
+    /**
+     * @param time
+     *            the time
+     * @return the index of the point following the passed time
+     */
+    protected final int nextIndex(final double time) {
+        if (size() < 2 || time < getTime(0)) {
+            return 0;
+        }
+        if (size() < 3) {
+            return 1;
+        }
+        if (time > getTime(size() - 1)) {
+            return size() - 1;
+        }
+        return search(time) + 1;
+    }
+
+    /*
+     * Index of the last point strictly before time, or the first point if
+     * none is. Requires at least three points, and time within the trace.
+     */
+    private int search(final double time) {
+        int low = 0;
+        int high = size() - 1;
+        for (int i = size() / 2; high - low > 1; i = low + (high - low) / 2) {
+            if (getTime(i) < time) {
+                low = i;
+            } else {
+                high = i;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void setId(final int i) {
+        id = i;
+    }
+
+    /**
+     * Points are always sorted by time: this method does nothing.
+     */
+    @Override
+    public void sort() {
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder().append(id).append(": [");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getPoint(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    /*
+     * Read only view on a point of the trace.
+     */
+    private final class PointView implements IGPSPoint {
+
+        private static final long serialVersionUID = 1L;
+        private final int index;
+
+        private PointView(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(final IGPSPoint p) {
+            return (int) Math.signum(getTime() - p.getTime());
+        }
+
+        @Override
+        public double getLatitude() {
+            return AbstractGPSTrace.this.getLatitude(index);
+        }
+
+        @Override
+        public double getLongitude() {
+            return AbstractGPSTrace.this.getLongitude(index);
+        }
+
+        @Override
+        public double getTime() {
+            return AbstractGPSTrace.this.getTime(index);
+        }
+
+        @Override
+        public void setTime(final double t) {
+            throw new UnsupportedOperationException("Points of " + AbstractGPSTrace.class.getSimpleName() + " are read only.");
+        }
+
+        @Override
+        public Position toPosition() {
+            return new LatLongPosition(getLatitude(), getLongitude());
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getLatitude() + "," + getLongitude() + "]@" + getTime();
+        }
+
+        @Override
+        @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
+        public boolean equals(final Object obj) {
+            if (obj instanceof IGPSPoint) {
+                final IGPSPoint pt = (IGPSPoint) obj;
+                return pt.getLatitude() == getLatitude() && pt.getLongitude() == getLongitude() && pt.getTime() == getTime();
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return HashUtils.hash32(getLatitude(), getLongitude(), getTime());
+        }
+
+    }
+
+}
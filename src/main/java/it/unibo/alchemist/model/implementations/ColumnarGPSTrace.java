@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * {@link IGPSTrace} storing latitudes, longitudes and times in parallel
+ * primitive arrays. Coordinates can optionally be stored in single
+ * precision, as offsets from the first point of the trace, halving their
+ * footprint. The error grows with the extent of the trace, wherever it lies
+ * on the Earth, and stays within a centimeter for traces spanning less than
+ * a degree.
+ */
+public class ColumnarGPSTrace extends AbstractGPSTrace {
+
+    private static final long serialVersionUID = 4330418651233357062L;
+    private final double[] latitudes, longitudes;
+    private final float[] latitudesF, longitudesF;
+    /*
+     * Origin of the single precision offsets
+     */
+    private final double latOrigin, lonOrigin;
+    private final double[] times;
+    /*
+     * Subtracted to the stored times, which are never modified
+     */
+    private double timeOffset;
+
+    /**
+     * @param id
+     *            the node id
+     * @param latitudes
+     *            the latitudes of the points
+     * @param longitudes
+     *            the longitudes of the points
+     * @param times
+     *            the times of the points
+     */
+    public ColumnarGPSTrace(final int id, final double[] latitudes, final double[] longitudes, final double[] times) {
+        this(id, latitudes, longitudes, times, false);
+    }
+
+    /**
+     * @param id
+     *            the node id
+     * @param latitudes
+     *            the latitudes of the points
+     * @param longitudes
+     *            the longitudes of the points
+     * @param times
+     *            the times of the points
+     * @param singlePrecision
+     *            if true, coordinates are stored as floats
+     */
+    public ColumnarGPSTrace(final int id, final double[] latitudes, final double[] longitudes, final double[] times, final boolean singlePrecision) {
+        super(id);
+        if (latitudes.length != longitudes.length || latitudes.length != times.length) {
+            throw new IllegalArgumentException("Latitudes (" + latitudes.length + "), longitudes (" + longitudes.length
+                    + ") and times (" + times.length + ") must have the same size.");
+        }
+        final int[] order = sortedByTime(times);
+        this.times = permute(times, order);
+        if (singlePrecision) {
+            final double[] sortedLatitudes = permute(latitudes, order);
+            final double[] sortedLongitudes = permute(longitudes, order);
+            latOrigin = sortedLatitudes.length == 0 ? 0 : sortedLatitudes[0];
+            lonOrigin = sortedLongitudes.length == 0 ? 0 : sortedLongitudes[0];
+            this.latitudes = null;
+            this.longitudes = null;
+            latitudesF = toOffsets(sortedLatitudes, latOrigin);
+            longitudesF = toOffsets(sortedLongitudes, lonOrigin);
+        } else {
+            this.latitudes = permute(latitudes, order);
+            this.longitudes = permute(longitudes, order);
+            latOrigin = 0;
+            lonOrigin = 0;
+            latitudesF = null;
+            longitudesF = null;
+        }
+    }
+
+    /*
+     * Shares the arrays of the source, but keeps its own time offset.
+     */
+    private ColumnarGPSTrace(final ColumnarGPSTrace source) {
+        super(source.getId());
+        latitudes = source.latitudes;
+        longitudes = source.longitudes;
+        latitudesF = source.latitudesF;
+        longitudesF = source.longitudesF;
+        latOrigin = source.latOrigin;
+        lonOrigin = source.lonOrigin;
+        times = source.times;
+        timeOffset = source.timeOffset;
+    }
+
+    /**
+     * @param trace
+     *            the trace to copy
+     * @param singlePrecision
+     *            if true, coordinates are stored as floats
+     * @return a {@link ColumnarGPSTrace} with the same id and points of the
+     *         passed trace
+     */
+    public static ColumnarGPSTrace copyOf(final IGPSTrace trace, final boolean singlePrecision) {
+        final int size = trace.size();
+        final double[] latitudes = new double[size];
+        final double[] longitudes = new double[size];
+        final double[] times = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = trace.getLatitude(i);
+            longitudes[i] = trace.getLongitude(i);
+            times[i] = trace.getTime(i);
+        }
+        return new ColumnarGPSTrace(trace.getId(), latitudes, longitudes, times, singlePrecision);
+    }
+
+    /*
+     * Null if the times are already sorted, which is the common case.
+     */
+    private static int[] sortedByTime(final double[] times) {
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[i - 1]) {
+                return IntStream.range(0, times.length)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(j -> times[j]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            }
+        }
+        return null;
+    }
+
+    private static double[] permute(final double[] source, final int[] order) {
+        if (order == null) {
+            return Arrays.copyOf(source, source.length);
+        }
+        final double[] result = new double[source.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = source[order[i]];
+        }
+        return result;
+    }
+
+    private static float[] toOffsets(final double[] source, final double origin) {
+        final float[] result = new float[source.length];
+        for (int i = 0; i < source.length; i++) {
+            result[i] = (float) (source[i] - origin);
+        }
+        return result;
+    }
+
+    /**
+     * @return a {@link GPSTraceView} on this trace: no point gets copied.
+     *         Normalizing the times of this trace does not affect the view
+     */
+    @Override
+    public IGPSTrace filter(final double time) {
+        return new GPSTraceView(new ColumnarGPSTrace(this), firstIndexFrom(time), time);
+    }
+
+    @Override
+    public double getLatitude(final int index) {
+        return latitudes == null ? latOrigin + latitudesF[index] : latitudes[index];
+    }
+
+    @Override
+    public double getLongitude(final int index) {
+        return longitudes == null ? lonOrigin + longitudesF[index] : longitudes[index];
+    }
+
+    @Override
+    public double getTime(final int index) {
+        return times[index] - timeOffset;
+    }
+
+    @Override
+    public void normalizeTimes(final double initialTime) {
+        timeOffset += initialTime;
+    }
+
+    @Override
+    public int size() {
+        return times.length;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.interfaces.IGPSPoint;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.utils.MapUtils;
+
+import java.util.Objects;
+
+import at.jku.traces.json.GPSPoint;
+import at.jku.traces.json.UserTrace;
+
+/**
+ * {@link IGPSTraceCursor} working on the points of any {@link IGPSTrace},
+ * accessed by index. Any segment is a valid starting point for a lookup, and
+ * the terms of the last interpolated segment are published as a single
+ * immutable object: concurrent queries never return wrong results, they only
+ * lose the benefit of the cursor.
+ */
+public final class GPSTraceCursor implements IGPSTraceCursor {
+
+    /*
+     * Beyond this many points, the cursor jumps forward with a binary search.
+     */
+    private static final int LINEAR_PROBES = 8;
+    private static final int LAT = 0;
+    private static final int LON = 1;
+    private final IGPSTrace trace;
+    private int segment;
+    private Segment cached;
+
+    /**
+     * @param trace
+     *            the trace
+     */
+    public GPSTraceCursor(final IGPSTrace trace) {
+        this.trace = Objects.requireNonNull(trace);
+    }
+
+    @Override
+    public IGPSTrace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public int previousIndex(final double time) {
+        final int size = trace.size();
+        if (size == 0) {
+            return -1;
+        }
+        if (size < 3 || time < trace.getTime(0)) {
+            return 0;
+        }
+        if (time > trace.getTime(size - 1)) {
+            return size - 1;
+        }
+        return segment(time);
+    }
+
+    @Override
+    public int nextIndex(final double time) {
+        final int size = trace.size();
+        if (size == 0) {
+            return -1;
+        }
+        if (size < 2 || time < trace.getTime(0)) {
+            return 0;
+        }
+        if (size < 3) {
+            return 1;
+        }
+        if (time > trace.getTime(size - 1)) {
+            return size - 1;
+        }
+        return segment(time) + 1;
+    }
+
+    @Override
+    public IGPSPoint getNextPosition(final double time) {
+        final int next = nextIndex(time);
+        return next < 0 ? UserTrace.FAILURE : trace.getPoint(next);
+    }
+
+    @Override
+    public IGPSPoint getPreviousPosition(final double time) {
+        final int prev = previousIndex(time);
+        return prev < 0 ? UserTrace.FAILURE : trace.getPoint(prev);
+    }
+
+    @Override
+    public IGPSPoint interpolate(final double time) {
+        final int prev = previousIndex(time);
+        return prev < 0 ? UserTrace.FAILURE : interpolate(trace, prev, nextIndex(time), time);
+    }
+
+    @Override
+    public void interpolate(final double time, final double[] latLon) {
+        final int prev = previousIndex(time);
+        if (prev < 0) {
+            latLon[LAT] = Double.NaN;
+            latLon[LON] = Double.NaN;
+            return;
+        }
+        final int next = nextIndex(time);
+        final double tdtime = trace.getTime(next) - trace.getTime(prev);
+        if (tdtime == 0) {
+            latLon[LAT] = trace.getLatitude(next);
+            latLon[LON] = trace.getLongitude(next);
+            return;
+        }
+        /*
+         * Read once: another thread may replace it meanwhile
+         */
+        Segment terms = cached;
+        if (terms == null || terms.prev != prev || terms.next != next) {
+            terms = new Segment(trace, prev, next);
+            cached = terms;
+        }
+        /*
+         * Travel along the great circle for the fraction of the segment
+         */
+        final double delta = terms.angle * (time - trace.getTime(prev)) / tdtime;
+        final double sinDelta = Math.sin(delta);
+        final double cosDelta = Math.cos(delta);
+        final double sinPhi2 = terms.sinPhi1 * cosDelta + terms.cosPhi1 * sinDelta * terms.cosBearing;
+        final double lambda2 = terms.lambda1 + Math.atan2(terms.sinBearing * sinDelta * terms.cosPhi1, cosDelta - terms.sinPhi1 * sinPhi2);
+        latLon[LAT] = Math.toDegrees(Math.asin(sinPhi2));
+        latLon[LON] = MapUtils.normalizeLongitude(Math.toDegrees(lambda2));
+    }
+
+    /*
+     * Index of the last point strictly before time, or the first point if
+     * none is. Requires at least three points, and time within the trace.
+     */
+    private int segment(final double time) {
+        final int last = trace.size() - 2;
+        int low = Math.min(segment, last);
+        if (low > 0 && trace.getTime(low) >= time) {
+            low = search(0, low, time);
+        } else {
+            for (int probes = 0; low < last && trace.getTime(low + 1) < time; probes++) {
+                if (probes == LINEAR_PROBES) {
+                    low = search(low, last + 1, time);
+                    break;
+                }
+                low++;
+            }
+        }
+        segment = low;
+        return low;
+    }
+
+    private int search(final int from, final int to, final double time) {
+        int low = from;
+        int high = to;
+        while (high - low > 1) {
+            final int mid = (low + high) >>> 1;
+            if (trace.getTime(mid) < time) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param trace
+     *            the trace
+     * @param prev
+     *            the index of the point preceding time
+     * @param next
+     *            the index of the point following time
+     * @param time
+     *            the time
+     * @return the position at which the node would have been if it has moved
+     *         in a straight line connecting the two points at constant speed
+     */
+    static IGPSPoint interpolate(final IGPSTrace trace, final int prev, final int next, final double time) {
+        final double tdtime = trace.getTime(next) - trace.getTime(prev);
+        if (tdtime == 0) {
+            return trace.getPoint(next);
+        }
+        final double ratio = (time - trace.getTime(prev)) / tdtime;
+        final Position start = new LatLongPosition(trace.getLatitude(prev), trace.getLongitude(prev));
+        final Position end = new LatLongPosition(trace.getLatitude(next), trace.getLongitude(next));
+        final double dist = MapUtils.getDistance(start, end);
+        return new GPSPoint(MapUtils.getDestinationLocation(start, end, dist * ratio), time);
+    }
+
+    /*
+     * Terms of the great circle of a segment. Immutable, so that it can be
+     * shared among threads through a plain field.
+     */
+    private static final class Segment {
+        private final int prev, next;
+        private final double lambda1, sinPhi1, cosPhi1, sinBearing, cosBearing, angle;
+
+        private Segment(final IGPSTrace trace, final int prev, final int next) {
+            this.prev = prev;
+            this.next = next;
+            final double lat1 = trace.getLatitude(prev);
+            final double lon1 = trace.getLongitude(prev);
+            final double lat2 = trace.getLatitude(next);
+            final double lon2 = trace.getLongitude(next);
+            final double phi1 = Math.toRadians(lat1);
+            final double bearing = MapUtils.getInitialBearingInRadians(lat1, lon1, lat2, lon2);
+            lambda1 = Math.toRadians(lon1);
+            sinPhi1 = Math.sin(phi1);
+            cosPhi1 = Math.cos(phi1);
+            sinBearing = Math.sin(bearing);
+            cosBearing = Math.cos(bearing);
+            angle = MapUtils.getCentralAngle(lat1, lon1, lat2, lon2);
+        }
+    }
+
+}
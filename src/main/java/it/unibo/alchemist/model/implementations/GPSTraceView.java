@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+import java.util.Objects;
+
+/**
+ * View on the points of another {@link IGPSTrace}, starting from a given
+ * index and with times shifted back of a given offset. Nothing is copied:
+ * changes to the times of the source trace are visible through the view,
+ * while {@link #normalizeTimes(double)} only affects the view.
+ */
+public final class GPSTraceView extends AbstractGPSTrace {
+
+    private static final long serialVersionUID = 3412815867386358093L;
+    private final IGPSTrace source;
+    private final int start;
+    private double timeOffset;
+
+    /**
+     * @param source
+     *            the trace to read. Must be sorted by time.
+     * @param start
+     *            the index of the first point of source to consider
+     * @param timeOffset
+     *            the amount of time to subtract to the times of source
+     */
+    public GPSTraceView(final IGPSTrace source, final int start, final double timeOffset) {
+        super(source.getId());
+        if (start < 0 || start > source.size()) {
+            throw new IndexOutOfBoundsException(start + " is not in [0, " + source.size() + "]");
+        }
+        this.source = Objects.requireNonNull(source);
+        this.start = start;
+        this.timeOffset = timeOffset;
+    }
+
+    @Override
+    public IGPSTrace filter(final double time) {
+        return new GPSTraceView(source, start + firstIndexFrom(time), timeOffset + time);
+    }
+
+    @Override
+    public double getLatitude(final int index) {
+        return source.getLatitude(start + index);
+    }
+
+    @Override
+    public double getLongitude(final int index) {
+        return source.getLongitude(start + index);
+    }
+
+    @Override
+    public double getTime(final int index) {
+        return source.getTime(start + index) - timeOffset;
+    }
+
+    @Override
+    public void normalizeTimes(final double initialTime) {
+        timeOffset += initialTime;
+    }
+
+    @Override
+    public int size() {
+        return source.size() - start;
+    }
+
+    /*
+     * Only the visible points are serialized.
+     */
+    private Object writeReplace() {
+        return ColumnarGPSTrace.copyOf(this, false);
+    }
+
+}
@@ -11,37 +11,58 @@ package it.unibo.alchemist.model.implementations;
 import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.utils.MapUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import com.graphhopper.GHResponse;
 import com.graphhopper.util.PointList;
 
 /**
+ * Route computed by GraphHopper. Coordinates are stored as primitive arrays,
+ * along with the length of the route up to each point, and {@link Position}s
+ * are built each time they are requested, without being retained.
  */
 public class GraphHopperRoute implements IRoute {
 
-    private static final long serialVersionUID = -1455332156736222268L;
-    private final int size;
+    private static final long serialVersionUID = 2084963245707422389L;
     private final double distance, time;
-    private final List<Position> points;
+    private final double[] latitudes, longitudes, cumulativeLengths;
+    private transient List<Position> points;
 
     /**
      * @param resp
      *            the response to use
      */
     public GraphHopperRoute(final GHResponse resp) {
-        time = resp.getMillis() / 1000d;
-        distance = resp.getDistance();
-        final PointList pts = resp.getPoints();
-        size = pts.getSize();
-        final List<Position> temp = new ArrayList<>(size);
-        for (int i = 0; i < pts.getSize(); i++) {
-            temp.add(new LatLongPosition(pts.getLatitude(i), pts.getLongitude(i)));
+        this(resp.getPoints(), resp.getDistance(), resp.getMillis() / 1000d);
+    }
+
+    /**
+     * @param pts
+     *            the points of the route
+     * @param distance
+     *            the length of the route, in meters
+     * @param time
+     *            the time required to travel the route, in seconds
+     */
+    public GraphHopperRoute(final PointList pts, final double distance, final double time) {
+        this.time = time;
+        this.distance = distance;
+        final int size = pts.getSize();
+        latitudes = new double[size];
+        longitudes = new double[size];
+        cumulativeLengths = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = pts.getLatitude(i);
+            longitudes[i] = pts.getLongitude(i);
+            if (i > 0) {
+                cumulativeLengths[i] = cumulativeLengths[i - 1]
+                        + MapUtils.getDistance(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+            }
         }
-        points = Collections.unmodifiableList(temp);
     }
 
     @Override
@@ -49,19 +70,32 @@ public class GraphHopperRoute implements IRoute {
         return distance;
     }
 
+    /**
+     * @param step
+     *            the step
+     * @return the length (in meters) of the polyline connecting the first
+     *         point of this route to the step-th one
+     */
+    public double getDistanceAlong(final int step) {
+        return cumulativeLengths[step];
+    }
+
     @Override
     public Position getPoint(final int step) {
-        return points.get(step);
+        return new LatLongPosition(latitudes[step], longitudes[step]);
     }
 
     @Override
     public List<Position> getPoints() {
+        if (points == null) {
+            points = new PointsView();
+        }
         return points;
     }
 
     @Override
     public int getPointsNumber() {
-        return size;
+        return latitudes.length;
     }
 
     @Override
@@ -69,4 +103,21 @@ public class GraphHopperRoute implements IRoute {
         return time;
     }
 
+    /*
+     * Unmodifiable view on the coordinates, building positions on access.
+     */
+    private final class PointsView extends AbstractList<Position> implements RandomAccess {
+
+        @Override
+        public Position get(final int index) {
+            return getPoint(index);
+        }
+
+        @Override
+        public int size() {
+            return getPointsNumber();
+        }
+
+    }
+
 }
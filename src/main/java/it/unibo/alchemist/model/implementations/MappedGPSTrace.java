@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link IGPSTrace} reading its points straight from a memory mapped binary
+ * trace file. The file is made of:
+ * <ul>
+ * <li>a header: magic number (int), version (int), offset of the index from
+ * the beginning of the file (long);</li>
+ * <li>a block of samples for each trace, each sample being time, latitude and
+ * longitude (three doubles), sorted by time;</li>
+ * <li>the index: number of traces (int), followed by id (int), number of
+ * samples (int) and offset of the block from the beginning of the file
+ * (long) for each trace.</li>
+ * </ul>
+ * All values are big endian. Files are written with a {@link Writer}, and
+ * read with {@link #load(File)}. Traces share the mapping, and since it is
+ * read only, so do all the processes reading the same file.
+ */
+public final class MappedGPSTrace extends AbstractGPSTrace {
+
+    /**
+     * The first int of every binary trace file.
+     */
+    public static final int MAGIC = 0x41475442;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+    private static final int INDEX_ENTRY_SIZE = 2 * Integer.BYTES + Long.BYTES;
+    private static final int SAMPLE_SIZE = 3 * Double.BYTES;
+    private static final int LATITUDE = Double.BYTES;
+    private static final int LONGITUDE = 2 * Double.BYTES;
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+    private static final long serialVersionUID = -3183466244562862616L;
+    private final transient ByteBuffer samples;
+    private final int base;
+    private final int size;
+    private double timeOffset;
+
+    private MappedGPSTrace(final int id, final ByteBuffer samples, final int base, final int size, final double timeOffset) {
+        super(id);
+        this.samples = samples;
+        this.base = base;
+        this.size = size;
+        this.timeOffset = timeOffset;
+    }
+
+    /**
+     * @param file
+     *            the file to check
+     * @return true if the file exists and starts as a binary trace file
+     */
+    public static boolean isTraceFile(final File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= HEADER_SIZE && in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a binary trace file in memory. Nothing is copied on the heap but
+     * the index.
+     * 
+     * @param file
+     *            the binary trace file
+     * @return the traces stored in the file
+     * @throws IOException
+     *             if the file can not be read, or it is not a valid binary
+     *             trace file
+     */
+    public static List<IGPSTrace> load(final File file) throws IOException {
+        return load(file, MAX_MAPPING);
+    }
+
+    /**
+     * Maps a binary trace file in memory, using mappings of at most the
+     * passed size.
+     * 
+     * @param file
+     *            the binary trace file
+     * @param maxMapping
+     *            the maximum size of a single mapping, in bytes. Can not
+     *            exceed {@link Integer#MAX_VALUE}.
+     * @return the traces stored in the file
+     * @throws IOException
+     *             if the file can not be read, or it is not a valid binary
+     *             trace file, or one of its traces does not fit a mapping
+     */
+    public static List<IGPSTrace> load(final File file, final long maxMapping) throws IOException {
+        if (maxMapping <= 0 || maxMapping > MAX_MAPPING) {
+            throw new IllegalArgumentException("Invalid mapping size: " + maxMapping);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a binary trace file, or it has been written by an incompatible version.");
+            }
+            final long indexOffset = header.getLong();
+            final int count = channel.map(MapMode.READ_ONLY, indexOffset, Integer.BYTES).getInt();
+            final ByteBuffer index = channel.map(MapMode.READ_ONLY, indexOffset + Integer.BYTES, (long) count * INDEX_ENTRY_SIZE);
+            final List<IGPSTrace> result = new ArrayList<>(count);
+            /*
+             * A single mapping can not exceed maxMapping: consecutive blocks are
+             * grouped in as few mappings as possible.
+             */
+            ByteBuffer segment = null;
+            long segmentStart = 0;
+            for (int i = 0; i < count; i++) {
+                final int id = index.getInt();
+                final int samples = index.getInt();
+                final long offset = index.getLong();
+                final long length = (long) samples * SAMPLE_SIZE;
+                if (length > maxMapping) {
+                    throw new IOException("Trace " + id + " in " + file + " is too large to be mapped.");
+                }
+                if (segment == null || offset < segmentStart || offset + length - segmentStart > segment.capacity()) {
+                    segmentStart = offset;
+                    segment = channel.map(MapMode.READ_ONLY, offset, Math.min(maxMapping, indexOffset - offset));
+                }
+                result.add(new MappedGPSTrace(id, segment, (int) (offset - segmentStart), samples, 0));
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public IGPSTrace filter(final double time) {
+        final int first = firstIndexFrom(time);
+        return new MappedGPSTrace(getId(), samples, base + first * SAMPLE_SIZE, size - first, timeOffset + time);
+    }
+
+    @Override
+    public double getLatitude(final int index) {
+        return samples.getDouble(base + index * SAMPLE_SIZE + LATITUDE);
+    }
+
+    @Override
+    public double getLongitude(final int index) {
+        return samples.getDouble(base + index * SAMPLE_SIZE + LONGITUDE);
+    }
+
+    @Override
+    public double getTime(final int index) {
+        return samples.getDouble(base + index * SAMPLE_SIZE) - timeOffset;
+    }
+
+    @Override
+    public void normalizeTimes(final double initialTime) {
+        timeOffset += initialTime;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Mappings can not be serialized: a copy on the heap is written instead.
+     */
+    private Object writeReplace() {
+        return ColumnarGPSTrace.copyOf(this, false);
+    }
+
+    /**
+     * Writes binary trace files incrementally: only the index is kept in
+     * memory.
+     */
+    public static final class Writer implements Closeable {
+
+        private final File file;
+        private final DataOutputStream out;
+        private final List<long[]> index = new ArrayList<>();
+        private long written;
+
+        /**
+         * @param file
+         *            the destination file, overwritten if it exists
+         * @throws IOException
+         *             if the file can not be written
+         */
+        public Writer(final File file) throws IOException {
+            this.file = file;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);
+            written = HEADER_SIZE;
+        }
+
+        /**
+         * @param trace
+         *            the trace to append. If it is not sorted by time, a
+         *            sorted copy is written.
+         * @throws IOException
+         *             if the file can not be written
+         */
+        public synchronized void append(final IGPSTrace trace) throws IOException {
+            IGPSTrace sorted = trace;
+            for (int i = 1; i < trace.size() && sorted == trace; i++) {
+                if (trace.getTime(i) < trace.getTime(i - 1)) {
+                    sorted = ColumnarGPSTrace.copyOf(trace, false);
+                }
+            }
+            index.add(new long[] { sorted.getId(), sorted.size(), written });
+            for (int i = 0; i < sorted.size(); i++) {
+                out.writeDouble(sorted.getTime(i));
+                out.writeDouble(sorted.getLatitude(i));
+                out.writeDouble(sorted.getLongitude(i));
+            }
+            written += (long) sorted.size() * SAMPLE_SIZE;
+        }
+
+        /**
+         * Writes the index and closes the file.
+         * 
+         * @throws IOException
+         *             if the file can not be written
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            out.writeInt(index.size());
+            for (final long[] entry : index) {
+                out.writeInt((int) entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeLong(entry[2]);
+            }
+            out.close();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(2 * Integer.BYTES);
+                raf.writeLong(written);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations;
+
+import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.utils.LocalProjection;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * View of a latitude-longitude {@link IRoute} on a {@link LocalProjection}.
+ * Points are projected when requested.
+ */
+public final class ProjectedRoute implements IRoute {
+
+    private static final long serialVersionUID = 5203938361720566618L;
+    private final IRoute route;
+    private final LocalProjection projection;
+    private transient List<Position> points;
+
+    /**
+     * @param route
+     *            the route, whose points are in latitude and longitude
+     * @param projection
+     *            the projection
+     */
+    public ProjectedRoute(final IRoute route, final LocalProjection projection) {
+        this.route = route;
+        this.projection = projection;
+    }
+
+    @Override
+    public double getDistance() {
+        return route.getDistance();
+    }
+
+    @Override
+    public Position getPoint(final int step) {
+        return projection.project(route.getPoint(step));
+    }
+
+    @Override
+    public List<Position> getPoints() {
+        if (points == null) {
+            points = new PointsView();
+        }
+        return points;
+    }
+
+    @Override
+    public int getPointsNumber() {
+        return route.getPointsNumber();
+    }
+
+    @Override
+    public double getTime() {
+        return route.getTime();
+    }
+
+    /*
+     * Unmodifiable view on the route, projecting points on access.
+     */
+    private final class PointsView extends AbstractList<Position> implements RandomAccess {
+
+        @Override
+        public Position get(final int index) {
+            return getPoint(index);
+        }
+
+        @Override
+        public int size() {
+            return getPointsNumber();
+        }
+
+    }
+
+}
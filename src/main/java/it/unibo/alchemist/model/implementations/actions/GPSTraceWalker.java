@@ -34,7 +34,7 @@ public class GPSTraceWalker<T> extends MoveOnMap<T> {
      *            the reaction
      */
     public GPSTraceWalker(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> reaction) {
-        super(environment, node,
+        super(environment, node, reaction,
                 new OnStreets<>(environment, Vehicle.FOOT),
                 new RoutingTraceDependantSpeed<>(environment, node, reaction, Vehicle.FOOT),
                 new FollowTrace<>(environment, node, reaction));
@@ -8,11 +8,16 @@
  */
 package it.unibo.alchemist.model.implementations.actions;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import it.unibo.alchemist.model.implementations.positions.ProjectedPosition;
 import it.unibo.alchemist.model.interfaces.IMapEnvironment;
 import it.unibo.alchemist.model.interfaces.Node;
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.model.interfaces.Reaction;
 import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.model.interfaces.Time;
 import it.unibo.alchemist.model.interfaces.strategies.RoutingStrategy;
 import it.unibo.alchemist.model.interfaces.strategies.SpeedSelectionStrategy;
 import it.unibo.alchemist.model.interfaces.strategies.TargetSelectionStrategy;
@@ -29,10 +34,18 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
      * distance between two points on the surface of the Earth.
      */
     public static final double MINIMUM_DISTANCE_WALKED = 1.0;
+    /**
+     * By default, nodes wait for their route to be ready before moving, so
+     * that runs are reproducible.
+     */
+    public static final boolean DEFAULT_ASYNC_ROUTING = false;
     private static final long serialVersionUID = -2268285113653315764L;
     private Position end;
     private IRoute route;
+    private transient CompletableFuture<IRoute> pendingRoute;
     private int curStep;
+    private final boolean asyncRouting;
+    private final Reaction<T> reaction;
     private final RoutingStrategy<T> routeStrategy;
     private final SpeedSelectionStrategy<T> speedStrategy;
     private final TargetSelectionStrategy<T> targetStrategy;
@@ -49,10 +62,80 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
      *            {@link TargetSelectionStrategy}
      */
     public MoveOnMap(final IMapEnvironment<T> environment, final Node<T> node, final RoutingStrategy<T> rt, final SpeedSelectionStrategy<T> sp, final TargetSelectionStrategy<T> tg) {
+        this(environment, node, rt, sp, tg, DEFAULT_ASYNC_ROUTING);
+    }
+
+    /**
+     * @param environment
+     *            the environment
+     * @param node
+     *            the node
+     * @param r
+     *            the reaction executing this action. Its time is notified to
+     *            the environment at each step, through
+     *            {@link IMapEnvironment#setSimulationTime(Time)}
+     * @param rt the {@link RoutingStrategy}
+     * @param sp
+     *            the {@link SpeedSelectionStrategy}
+     * @param tg
+     *            {@link TargetSelectionStrategy}
+     */
+    public MoveOnMap(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> r, final RoutingStrategy<T> rt, final SpeedSelectionStrategy<T> sp, final TargetSelectionStrategy<T> tg) {
+        this(environment, node, r, rt, sp, tg, DEFAULT_ASYNC_ROUTING);
+    }
+
+    /**
+     * @param environment
+     *            the environment
+     * @param node
+     *            the node
+     * @param rt the {@link RoutingStrategy}
+     * @param sp
+     *            the {@link SpeedSelectionStrategy}
+     * @param tg
+     *            {@link TargetSelectionStrategy}
+     * @param async
+     *            if true, while a new route is being computed the node moves
+     *            in straight line towards the target, and switches to the
+     *            route as soon as it is available, and the route of the next
+     *            leg is computed in advance. This is faster, but simulations
+     *            are no longer reproducible. If false, routes are computed
+     *            synchronously, on the thread executing the action.
+     */
+    public MoveOnMap(final IMapEnvironment<T> environment, final Node<T> node, final RoutingStrategy<T> rt, final SpeedSelectionStrategy<T> sp, final TargetSelectionStrategy<T> tg, final boolean async) {
+        this(environment, node, null, rt, sp, tg, async);
+    }
+
+    /**
+     * @param environment
+     *            the environment
+     * @param node
+     *            the node
+     * @param r
+     *            the reaction executing this action. Its time is notified to
+     *            the environment at each step, through
+     *            {@link IMapEnvironment#setSimulationTime(Time)}. If null,
+     *            no time is notified
+     * @param rt the {@link RoutingStrategy}
+     * @param sp
+     *            the {@link SpeedSelectionStrategy}
+     * @param tg
+     *            {@link TargetSelectionStrategy}
+     * @param async
+     *            if true, while a new route is being computed the node moves
+     *            in straight line towards the target, and switches to the
+     *            route as soon as it is available, and the route of the next
+     *            leg is computed in advance. This is faster, but simulations
+     *            are no longer reproducible. If false, routes are computed
+     *            synchronously, on the thread executing the action.
+     */
+    public MoveOnMap(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> r, final RoutingStrategy<T> rt, final SpeedSelectionStrategy<T> sp, final TargetSelectionStrategy<T> tg, final boolean async) {
         super(environment, node, true);
+        reaction = r;
         routeStrategy = rt;
         speedStrategy = sp;
         targetStrategy = tg;
+        asyncRouting = async;
     }
 
     @Override
@@ -62,6 +145,9 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
 
     @Override
     public Position getNextPosition() {
+        if (reaction != null) {
+            getEnvironment().setSimulationTime(reaction.getTau());
+        }
         final Position previousEnd = end;
         end = targetStrategy.getNextTarget();
         if (!end.equals(previousEnd)) {
@@ -75,22 +161,42 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
             final Position destination = end;
             end = targetStrategy.getNextTarget();
             resetRoute();
+            if (asyncRouting && !end.equals(destination)) {
+                /*
+                 * Start computing the next leg while walking this step
+                 */
+                pendingRoute = routeStrategy.computeRouteAsync(destination, end);
+            }
             return destination;
         }
         if (route == null) {
-            route = routeStrategy.computeRoute(curPos, end);
+            if (asyncRouting) {
+                if (pendingRoute == null) {
+                    pendingRoute = routeStrategy.computeRouteAsync(curPos, end);
+                }
+                if (!pendingRoute.isDone()) {
+                    return moveTowards(curPos, end, maxWalk);
+                }
+                route = joinPendingRoute();
+                curStep = nearestStep(route, curPos);
+            } else {
+                /*
+                 * Routing on the caller thread keeps runs reproducible
+                 */
+                route = routeStrategy.computeRoute(curPos, end);
+            }
         }
         if (route.getPointsNumber() < 1) {
             resetRoute();
-            return MapUtils.getDestinationLocation(curPos, end, maxWalk);
+            return moveTowards(curPos, end, maxWalk);
         }
         Position target = null;
         double toWalk;
         do {
             target = route.getPoint(curStep);
-            toWalk = target.getDistanceTo(curPos);
+            toWalk = curPos.getDistanceTo(target);
             if (toWalk > maxWalk) {
-                return MapUtils.getDestinationLocation(curPos, target, maxWalk);
+                return moveTowards(curPos, target, maxWalk);
             }
             curStep++;
             maxWalk -= toWalk;
@@ -100,7 +206,54 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
          */
         resetRoute();
         target = end;
-        return MapUtils.getDestinationLocation(curPos, target, maxWalk);
+        return moveTowards(curPos, target, maxWalk);
+    }
+
+    /*
+     * Failures are rethrown as the routing strategy raised them.
+     */
+    private IRoute joinPendingRoute() {
+        try {
+            return pendingRoute.join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            pendingRoute = null;
+        }
+    }
+
+    /*
+     * On projected coordinates, nodes move in straight line on the plane.
+     */
+    private static Position moveTowards(final Position from, final Position to, final double distance) {
+        if (from instanceof ProjectedPosition) {
+            return ((ProjectedPosition) from).towards(to, distance);
+        }
+        return MapUtils.getDestinationLocation(from, to, distance);
+    }
+
+    /*
+     * The node may have moved while the route was being computed: resume from
+     * the closest point of the route.
+     */
+    private static int nearestStep(final IRoute route, final Position position) {
+        int nearest = 0;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < route.getPointsNumber(); i++) {
+            final double distance = position.getDistanceTo(route.getPoint(i));
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
     }
 
     /**
@@ -115,6 +268,7 @@ public class MoveOnMap<T> extends AbstractMoveNode<T> {
      */
     protected final void resetRoute() {
         route = null;
+        pendingRoute = null;
         curStep = 0;
     }
 
@@ -25,7 +25,7 @@ public class ReproduceGPSTrace<T> extends MoveOnMap<T> {
      *            every step, relying on {@link Reaction}'s getRate() method.
      */
     public ReproduceGPSTrace(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> reaction) {
-        super(environment, node,
+        super(environment, node, reaction,
                 new IgnoreStreets<>(),
                 new StraightLineTraceDependantSpeed<>(environment, node, reaction),
                 new FollowTrace<>(environment, node, reaction));
@@ -43,7 +43,7 @@ public class ReproduceGPSTrace<T> extends MoveOnMap<T> {
      *            the average speed
      */
     public ReproduceGPSTrace(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> reaction, final double speed) {
-        super(environment, node,
+        super(environment, node, reaction,
                 new IgnoreStreets<>(),
                 new ConstantSpeed<>(reaction, speed),
                 new FollowTrace<>(environment, node, reaction));
@@ -71,7 +71,7 @@ public class TargetWalker<T> extends MoveOnMap<T> {
     public TargetWalker(final IMapEnvironment<T> environment, final Node<T> node, final Reaction<T> reaction,
             final Molecule trackMolecule, final Molecule interactingMolecule, final double speed, final double interaction,
             final double range) {
-        super(environment, node,
+        super(environment, node, reaction,
                 new OnStreets<>(environment, Vehicle.FOOT),
                 new InteractWithOthers<>(environment, node, reaction, interactingMolecule, speed, range, interaction),
                 new FollowTarget<>(environment, node, trackMolecule));
@@ -10,45 +10,79 @@ package it.unibo.alchemist.model.implementations.environments;
 
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import it.unibo.alchemist.model.implementations.AbstractGPSTrace;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
 import it.unibo.alchemist.model.implementations.GraphHopperRoute;
+import it.unibo.alchemist.model.implementations.MappedGPSTrace;
+import it.unibo.alchemist.model.implementations.ProjectedRoute;
 import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition.DistanceFormula;
+import it.unibo.alchemist.model.implementations.positions.ProjectedPosition;
 import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
 import it.unibo.alchemist.model.interfaces.IMapEnvironment;
 import it.unibo.alchemist.model.interfaces.Node;
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.model.interfaces.ITraceSampleRange;
 import it.unibo.alchemist.model.interfaces.Time;
 import it.unibo.alchemist.model.interfaces.Vehicle;
+import it.unibo.alchemist.utils.LocalProjection;
+import it.unibo.alchemist.utils.MapUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
-import org.danilopianini.concurrency.FastReadWriteLock;
 import org.danilopianini.io.FileUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Cache;
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
+import com.graphhopper.routing.DijkstraOneToMany;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.ShortestWeighting;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.storage.NodeAccess;
 import com.graphhopper.storage.index.QueryResult;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
 import com.graphhopper.util.shapes.GHPoint;
 
 /**
@@ -91,8 +125,75 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      * The default value for the discard of nodes too far from streets option.
      */
     public static final boolean DEFAULT_FORCE_STREETS = true;
+
+    /**
+     * The default value for the single graph shared among all the vehicles
+     * option.
+     */
+    public static final boolean DEFAULT_SHARED_GRAPH = false;
+
+    /**
+     * The default memory budget of the route cache. Non positive values bound
+     * the cache by number of routes instead.
+     */
+    public static final long DEFAULT_ROUTE_CACHE_BYTES = 0;
+
+    /**
+     * The default expiration time of the cached routes. Non positive values
+     * make routes expire after ten minutes of wall clock time without being
+     * accessed.
+     */
+    public static final double DEFAULT_ROUTE_CACHE_EXPIRATION = 0;
+
+    /**
+     * The default value for the caching of routes by graph junctions option.
+     */
+    public static final boolean DEFAULT_SNAP_ROUTES = false;
+
+    /**
+     * The default value for the storage of the computed routes on disk option.
+     */
+    public static final boolean DEFAULT_PERSISTENT_ROUTES = false;
+
+    /**
+     * The default value for the projected coordinates option.
+     */
+    public static final boolean DEFAULT_PROJECTED_COORDINATES = false;
+
+    /**
+     * The default formula used to compute distances between positions in
+     * latitude and longitude.
+     */
+    public static final DistanceFormula DEFAULT_DISTANCE_FORMULA = LatLongPosition.DEFAULT_DISTANCE_FORMULA;
     private static final int ENCODING_BASE = 36;
     private static final int ROUTES_CACHE_SIZE = 10000;
+    private static final int ROUTES_CACHE_WALLCLOCK_MINUTES = 10;
+    /*
+     * Rough footprint of a cached route: the object headers, the key, and the
+     * latitudes, longitudes and cumulative lengths of a GraphHopperRoute.
+     * Positions are not retained by the routes.
+     */
+    private static final int ROUTE_BYTES_OVERHEAD = 256;
+    private static final int ROUTE_BYTES_PER_POINT = 3 * Double.BYTES;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double MS_TO_KMH = 3.6;
+    /*
+     * Result of a failed routing: no points, and unknown length and time.
+     */
+    private static final IRoute NO_ROUTE = new GraphHopperRoute(new PointList(0, false), Double.NaN, Double.NaN);
+    /*
+     * Four bytes are not enough to store the flags of all the vehicles.
+     */
+    private static final int SHARED_GRAPH_FLAG_BYTES = 8;
+    private static final String SHARED_GRAPH_DIR = "ALL";
+    private static final String GRAPH_PROPERTIES = "properties";
+    private static final String ROUTE_STORE_PREFIX = "routes-";
+    private static final String ROUTE_STORE_EXTENSION = ".bin";
+    private static final String UNCONTRACTED_SUFFIX = "-flexible";
+    private static final int NO_NODE = -1;
+    private static final double STRAIGHT_LINE_TOLERANCE = 1e-5;
+    private static final String CALC_POINTS = "calcPoints";
+    private static final String INSTRUCTIONS = "instructions";
     private static final String MONITOR = "MapDisplay";
     private static final Logger L = LoggerFactory.getLogger(OSMEnvironment.class);
     private static final long serialVersionUID = -8100726226966471621L;
@@ -107,10 +208,37 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
 
     private final String mapResource;
     private final TIntObjectMap<IGPSTrace> traces = new TIntObjectHashMap<>();
-    private final boolean forceStreets, onlyStreet;
-    private transient FastReadWriteLock mapLock;
-    private transient Map<Vehicle, GraphHopper> navigators;
-    private transient LoadingCache<Triple<Vehicle, Position, Position>, IRoute> routecache;
+    private final boolean forceStreets, onlyStreet, sharedGraph;
+    private final long routeCacheBytes;
+    private final double routeCacheExpiration;
+    private final boolean snapRoutes;
+    private final boolean persistRoutes;
+    private final boolean projectedCoordinates;
+    /*
+     * Not final, since environments serialized before they were introduced
+     * lack them.
+     */
+    private Set<Vehicle> preloadedVehicles;
+    private Set<Vehicle> contractedVehicles;
+    private DistanceFormula distanceFormula;
+    private LocalProjection projection;
+    private transient File mapFile;
+    private transient String workdir;
+    private transient ConcurrentMap<Vehicle, CompletableFuture<GraphHopper>> navigators;
+    private transient Map<Vehicle, List<Vehicle>> sharedGraphs;
+    /*
+     * Routes, routes among junctions, and route metrics share the same
+     * budget. Metrics are routes without points, keyed by MetricsKey.
+     */
+    private transient Cache<Object, IRoute> routecache;
+    private transient Map<Vehicle, Optional<RouteStore>> routeStores;
+    private transient Executor routingExecutor;
+    private transient ThreadLocal<Map<Vehicle, DijkstraOneToMany>> oneToManySearches;
+    private transient volatile long simulationNanos;
+    private transient TIntObjectMap<IGPSTraceCursor> cursors;
+    private transient ThreadLocal<double[]> interpolations;
+    private transient TraceTimeIndex traceTimes;
+    private transient volatile TraceGridIndex traceGrid;
 
     /**
      * @param file
@@ -157,8 +285,9 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      *            of any format (xml, osm, pbf). The map will be processed,
      *            optimized and stored for future use.
      * @param tfile
-     *            the file path where the traces are stored. Supports only
-     *            Alchemist's AGT traces. Can be null.
+     *            the file path where the traces are stored. Supports
+     *            Alchemist's AGT traces, either serialized or in the binary
+     *            format of {@link MappedGPSTrace}. Can be null.
      * @param ttime
      *            the minimum time to consider when using the trace
      * @throws IOException
@@ -179,8 +308,9 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      *            of any format (xml, osm, pbf). The map will be processed,
      *            optimized and stored for future use.
      * @param tfile
-     *            the file path where the traces are stored. Supports only
-     *            Alchemist's AGT traces. Can be null.
+     *            the file path where the traces are stored. Supports
+     *            Alchemist's AGT traces, either serialized or in the binary
+     *            format of {@link MappedGPSTrace}. Can be null.
      * @param ttime
      *            the minimum time to consider when using the trace
      * @param useIds
@@ -205,8 +335,9 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      *            of any format (xml, osm, pbf). The map will be processed,
      *            optimized and stored for future use.
      * @param tfile
-     *            the file path where the traces are stored. Supports only
-     *            Alchemist's AGT traces. Can be null.
+     *            the file path where the traces are stored. Supports
+     *            Alchemist's AGT traces, either serialized or in the binary
+     *            format of {@link MappedGPSTrace}. Can be null.
      * @param ttime
      *            the minimum time to consider when using the trace
      * @param onStreets
@@ -230,18 +361,65 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      *             if there is a gigantic bug in the distribution and
      *             {@link IGPSTrace} or {@link List} cannot be loaded
      */
-    @SuppressWarnings("unchecked")
     protected OSMEnvironment(final String file, final String tfile, final double ttime, final boolean onStreets, final boolean onlyOnStreets, final boolean useIds) throws IOException, ClassNotFoundException {
+        this(file, tfile, ttime, onStreets, onlyOnStreets, useIds, new OSMEnvironmentOptions());
+    }
+
+    /**
+     * @param file
+     *            the file path where the map data is stored. Accepts OSM maps
+     *            of any format (xml, osm, pbf). The map will be processed,
+     *            optimized and stored for future use.
+     * @param tfile
+     *            the file path where the traces are stored. Supports
+     *            Alchemist's AGT traces, either serialized or in the binary
+     *            format of {@link MappedGPSTrace}. Can be null.
+     * @param ttime
+     *            the minimum time to consider when using the trace
+     * @param onStreets
+     *            if true, the nodes will be placed on the street nearest to the
+     *            desired {@link Position}. This setting is automatically
+     *            overridden if GPS traces are used, and a matching trace id is
+     *            available for the node.
+     * @param onlyOnStreets
+     *            if true, the nodes which are too far from a street will be
+     *            simply discarded. If false, they will be placed anyway, in the
+     *            original position.
+     * @param useIds
+     *            true if you want the association node - trace to be made with
+     *            respect to the ids stored in the traces. Otherwise, ids are
+     *            generated starting from 0.
+     * @param options
+     *            the navigation and caching options
+     * @throws IOException
+     *             if the map file is not found, or it's not readable, or
+     *             accessible, or a file system error occurred, or you kicked
+     *             your hard drive while Alchemist was reading the map
+     * @throws ClassNotFoundException
+     *             if there is a gigantic bug in the distribution and
+     *             {@link IGPSTrace} or {@link List} cannot be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public OSMEnvironment(final String file, final String tfile, final double ttime, final boolean onStreets, final boolean onlyOnStreets, final boolean useIds, final OSMEnvironmentOptions options) throws IOException, ClassNotFoundException {
         super();
         /*
          * Try to load as resource, then try to load a file
          */
         List<IGPSTrace> trcs = null;
         if (tfile != null) {
-            trcs = (List<IGPSTrace>) FileUtilities.fileToObject(tfile);
+            final File traceFile = new File(tfile);
+            trcs = MappedGPSTrace.isTraceFile(traceFile)
+                    ? MappedGPSTrace.load(traceFile)
+                    : (List<IGPSTrace>) FileUtilities.fileToObject(tfile);
             int idgen = 0;
             for (final IGPSTrace gps : trcs) {
-                final IGPSTrace trace = gps.filter(ttime);
+                /*
+                 * Filtering returns views. Traces are stored as primitive
+                 * arrays or mapped files, whatever their format: points of
+                 * other traces are copied once, while filtering.
+                 */
+                final IGPSTrace filtered = gps.filter(ttime);
+                final IGPSTrace trace = gps instanceof AbstractGPSTrace ? filtered : ColumnarGPSTrace.copyOf(filtered, false);
                 if (trace.size() > 0) {
                     if (useIds) {
                         traces.put(trace.getId(), trace);
@@ -256,7 +434,19 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
         }
         forceStreets = onStreets;
         onlyStreet = onlyOnStreets;
+        sharedGraph = options.isSharedGraph();
+        preloadedVehicles = EnumSet.noneOf(Vehicle.class);
+        preloadedVehicles.addAll(options.getPreloadedVehicles());
+        contractedVehicles = EnumSet.noneOf(Vehicle.class);
+        contractedVehicles.addAll(options.getContractedVehicles());
+        routeCacheBytes = options.getRouteCacheBytes();
+        routeCacheExpiration = options.getRouteCacheExpiration();
+        snapRoutes = options.isSnapRoutes();
+        persistRoutes = options.isPersistRoutes();
+        projectedCoordinates = options.isProjectedCoordinates();
+        distanceFormula = options.getDistanceFormula();
         mapResource = file;
+        routingExecutor = ForkJoinPool.commonPool();
         initAll(file);
     }
 
@@ -271,41 +461,233 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
     private void initAll(final String file) throws IOException {
         final URL resource = OSMEnvironment.class.getResource(file);
         final String resFile = resource == null ? "" : resource.getPath();
-        final File mapFile = resFile.isEmpty() ? new File(file) : new File(resFile);
+        mapFile = resFile.isEmpty() ? new File(file) : new File(resFile);
         if (!mapFile.exists()) {
             throw new FileNotFoundException(file);
         }
-        final String dir = initDir(mapFile);
-        final File workdir = new File(dir);
+        workdir = initDir(mapFile);
         mkdirsIfNeeded(workdir);
-        navigators = new EnumMap<>(Vehicle.class);
-        mapLock = new FastReadWriteLock();
-        final boolean processOK = Arrays.stream(Vehicle.values())//.parallel()
-            .map((v) -> {
-                try {
-                    final String internalWorkdir = workdir + SLASH + v;
-                    final File iwdf = new File(internalWorkdir);
-                    if (mkdirsIfNeeded(iwdf)) {
-                        final GraphHopper gh = new GraphHopper().forDesktop();
-                        gh.setOSMFile(mapFile.getAbsolutePath());
-                        gh.setGraphHopperLocation(internalWorkdir);
-                        gh.setEncodingManager(new EncodingManager(v.toString()));
-                        gh.importOrLoad();
-                        mapLock.write();
-                        navigators.put(v, gh);
-                        mapLock.release();
-                        return true;
-                    }
-                } catch (final Exception e) {
-                    L.warn("", e);
-                }
-                L.warn("Unable to initialize navigation data for {}", v);
-                return false;
-            })
-            .reduce((a, b) -> a && b).orElse(false);
+        navigators = new ConcurrentHashMap<>();
+        sharedGraphs = sharedGraph ? packSharedGraphs(contractedVehicles) : null;
+        routecache = buildRoutesCache();
+        routeStores = Collections.synchronizedMap(new EnumMap<>(Vehicle.class));
+        /*
+         * Built once and only read afterwards: safe for concurrent lookups.
+         */
+        cursors = new TIntObjectHashMap<>(traces.size());
+        traces.forEachEntry((id, trace) -> {
+            cursors.put(id, trace.cursor());
+            return true;
+        });
+        traceTimes = new TraceTimeIndex(traces);
+        interpolations = ThreadLocal.withInitial(() -> new double[2]);
+        oneToManySearches = ThreadLocal.withInitial(() -> new EnumMap<>(Vehicle.class));
+        final boolean processOK = preloadedVehicles.stream()
+            .map(v -> getNavigator(v) != null)
+            .reduce((a, b) -> a && b).orElse(true);
         if (!processOK) {
             L.warn("Initialization completed with errors. Not all the navigation means supported by GraphHopper could be initialized with the map data provided.");
         }
+        if (projectedCoordinates && projection == null) {
+            projection = initProjection();
+        }
+    }
+
+    /*
+     * The projection is centered in the bounds of the map, as read by the
+     * first navigator available. It is serialized along with the environment,
+     * so that positions keep their meaning.
+     */
+    private LocalProjection initProjection() {
+        final Optional<GraphHopper> gh = Stream.concat(preloadedVehicles.stream(), Arrays.stream(Vehicle.values()))
+                .map(this::getNavigator)
+                .filter(Objects::nonNull)
+                .findFirst();
+        if (gh.isPresent()) {
+            final BBox bounds = gh.get().getGraph().getBounds();
+            final LocalProjection result = new LocalProjection((bounds.minLat + bounds.maxLat) / 2, (bounds.minLon + bounds.maxLon) / 2);
+            L.info("Positions are projected on {}", result);
+            return result;
+        }
+        L.warn("No navigator could read the bounds of the map: positions are not projected.");
+        return null;
+    }
+
+    /*
+     * The navigation engine works in latitude and longitude: positions and
+     * routes are converted from and to the projection, if any, at its
+     * boundary. Otherwise, positions are converted to the distance formula
+     * of the environment.
+     */
+    private Position fromLatLong(final Position position) {
+        if (projection != null) {
+            return projection.project(position);
+        }
+        if (position instanceof LatLongPosition) {
+            return ((LatLongPosition) position).withDistanceFormula(distanceFormula);
+        }
+        return position;
+    }
+
+    /*
+     * Same as fromLatLong(Position), without rounding the coordinates twice.
+     * The scratch array gets overwritten.
+     */
+    private Position fromLatLong(final double lat, final double lon, final double[] scratch) {
+        if (projection == null) {
+            return new LatLongPosition(lat, lon, distanceFormula);
+        }
+        projection.project(lat, lon, scratch);
+        return new ProjectedPosition(scratch[0], scratch[1], projection);
+    }
+
+    private IRoute fromLatLong(final IRoute route) {
+        return projection == null ? route : new ProjectedRoute(route, projection);
+    }
+
+    /*
+     * Navigators are loaded the first time they are requested. Each graph is
+     * keyed by its first vehicle: the thread that registers the future builds
+     * the graph, while the ones asking for the same graph wait for it. Graphs
+     * of other vehicles are loaded concurrently. A null navigator means that
+     * the graph could not be built.
+     */
+    private GraphHopper getNavigator(final Vehicle vehicle) {
+        final List<Vehicle> loaded = sharedGraph ? sharedGraphs.get(vehicle) : Collections.singletonList(vehicle);
+        final CompletableFuture<GraphHopper> created = new CompletableFuture<>();
+        final CompletableFuture<GraphHopper> existing = navigators.putIfAbsent(loaded.get(0), created);
+        if (existing != null) {
+            return existing.join();
+        }
+        final GraphHopper gh;
+        try {
+            gh = sharedGraph ? initSharedNavigator(loaded) : initVehicleNavigator(vehicle);
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        }
+        if (gh == null) {
+            L.warn("Unable to initialize navigation data for {}", loaded);
+        }
+        created.complete(gh);
+        return gh;
+    }
+
+    /*
+     * Cache loaders must not return null: a missing navigator fails the load.
+     */
+    private GraphHopper requireNavigator(final Vehicle vehicle) throws IOException {
+        final GraphHopper gh = getNavigator(vehicle);
+        if (gh == null) {
+            throw new IOException("No navigation data available for " + vehicle);
+        }
+        return gh;
+    }
+
+    private GraphHopper initVehicleNavigator(final Vehicle vehicle) {
+        final boolean contract = contractedVehicles.contains(vehicle);
+        final String dir = workdir + SLASH + vehicle + (contract ? "" : UNCONTRACTED_SUFFIX);
+        final long start = System.nanoTime();
+        final GraphHopper gh = initNavigator(mapFile, dir, new EncodingManager(vehicle.toString()), contract);
+        if (gh != null) {
+            L.info("Navigation data for {} ready in {}ms{}", vehicle, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    contract ? ", with contraction hierarchies" : "");
+        }
+        return gh;
+    }
+
+    /*
+     * Parses the map once, building a single graph whose edges carry the
+     * flags of several vehicles, which share the same navigator. GraphHopper
+     * can only contract the first vehicle of the graph, and routes the others
+     * with plain Dijkstra.
+     */
+    private GraphHopper initSharedNavigator(final List<Vehicle> vehicles) {
+        final boolean contract = contractedVehicles.contains(vehicles.get(0));
+        final List<Vehicle> uncontracted = vehicles.stream()
+                .skip(contract ? 1 : 0)
+                .filter(contractedVehicles::contains)
+                .collect(Collectors.toList());
+        if (!uncontracted.isEmpty()) {
+            L.warn("A shared graph can only be contracted for one vehicle. {} will not be contracted.", uncontracted);
+        }
+        final String dir = workdir + SLASH + SHARED_GRAPH_DIR + "-" + vehicles.stream().map(Vehicle::toString).collect(Collectors.joining("-"))
+                + (contract ? "" : UNCONTRACTED_SUFFIX);
+        final boolean cached = isImported(dir);
+        final long start = System.nanoTime();
+        final GraphHopper gh = initNavigator(mapFile, dir, sharedEncodingManager(vehicles), contract);
+        if (gh != null) {
+            L.info("Shared graph for {} {} in {}ms, taking {} bytes",
+                    vehicles, cached ? "loaded" : "imported", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    gh.getGraph().getCapacity() + gh.getLocationIndex().getCapacity());
+        }
+        return gh;
+    }
+
+    /*
+     * Vehicles are packed first fit, the contracted ones first, so that they
+     * lead the graphs as often as possible. Returns the graph of each vehicle.
+     */
+    private static Map<Vehicle, List<Vehicle>> packSharedGraphs(final Set<Vehicle> contracted) {
+        final List<List<Vehicle>> graphs = new ArrayList<>();
+        Stream.concat(contracted.stream(), Arrays.stream(Vehicle.values())).distinct().forEachOrdered(vehicle -> {
+            final Optional<List<Vehicle>> fitting = graphs.stream().filter(graph -> fits(graph, vehicle)).findFirst();
+            if (fitting.isPresent()) {
+                fitting.get().add(vehicle);
+            } else {
+                graphs.add(new ArrayList<>(Collections.singletonList(vehicle)));
+            }
+        });
+        final Map<Vehicle, List<Vehicle>> result = new EnumMap<>(Vehicle.class);
+        for (final List<Vehicle> graph : graphs) {
+            for (final Vehicle vehicle : graph) {
+                result.put(vehicle, Collections.unmodifiableList(graph));
+            }
+        }
+        return result;
+    }
+
+    private static boolean fits(final List<Vehicle> graph, final Vehicle vehicle) {
+        final List<Vehicle> candidate = new ArrayList<>(graph);
+        candidate.add(vehicle);
+        try {
+            sharedEncodingManager(candidate);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static EncodingManager sharedEncodingManager(final List<Vehicle> vehicles) {
+        return new EncodingManager(vehicles.stream().map(Vehicle::toString).collect(Collectors.joining(",")), SHARED_GRAPH_FLAG_BYTES);
+    }
+
+    /*
+     * GraphHopper writes its properties file once the import is complete.
+     */
+    private static boolean isImported(final String internalWorkdir) {
+        return new File(internalWorkdir, GRAPH_PROPERTIES).isFile();
+    }
+
+    private static GraphHopper initNavigator(final File mapFile, final String internalWorkdir, final EncodingManager encoding, final boolean contract) {
+        try {
+            final File iwdf = new File(internalWorkdir);
+            if (mkdirsIfNeeded(iwdf)) {
+                final GraphHopper gh = new GraphHopper().forDesktop();
+                gh.setOSMFile(mapFile.getAbsolutePath());
+                gh.setGraphHopperLocation(internalWorkdir);
+                gh.setEncodingManager(encoding);
+                gh.setCHEnable(contract);
+                if (contract) {
+                    gh.setCHWeighting(ROUTING_STRATEGY);
+                }
+                gh.importOrLoad();
+                return gh;
+            }
+        } catch (final Exception e) {
+            L.warn("", e);
+        }
+        return null;
     }
 
     private String initDir(final File mapfile) throws IOException {
@@ -342,37 +724,337 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
 
     @Override
     public IRoute computeRoute(final Position p1, final Position p2, final Vehicle vehicle) {
-        if (routecache == null) {
-            routecache = CacheBuilder
-                .newBuilder()
-                .maximumSize(ROUTES_CACHE_SIZE)
-                .expireAfterAccess(10, TimeUnit.MINUTES)
-                .build(new CacheLoader<Triple<Vehicle, Position, Position>, IRoute>() {
-                    @Override
-                    public IRoute load(final Triple<Vehicle, Position, Position> key) {
-                        final Vehicle vehicle = key.getLeft();
-                        final Position p1 = key.getMiddle();
-                        final Position p2 = key.getRight();
-                        final GHRequest req = new GHRequest(p1.getCoordinate(1), p1.getCoordinate(0), p2.getCoordinate(1), p2.getCoordinate(0))
-                                .setAlgorithm(DEFAULT_ALGORITHM)
-                                .setVehicle(vehicle.toString())
-                                .setWeighting(ROUTING_STRATEGY);
-                        mapLock.read();
-                        final GraphHopper gh = navigators.get(vehicle);
-                        mapLock.release();
-                        if (gh != null) {
-                                final GHResponse resp = gh.route(req);
-                                return new GraphHopperRoute(resp);
-                        }
-                        return null;
-                    }
-                });
+        try {
+            return fromLatLong(route(new ImmutableTriple<>(vehicle, LocalProjection.toLatLong(p1), LocalProjection.toLatLong(p2))));
+        } catch (ExecutionException e) {
+            throw routingFailure(p1, p2, vehicle, e);
+        }
+    }
+
+    private IRoute route(final Triple<Vehicle, Position, Position> key) throws ExecutionException {
+        if (snapRoutes) {
+            final IRoute route = computeRouteAmongJunctions(key.getLeft(), key.getMiddle(), key.getRight(), true);
+            if (route != null) {
+                return route;
+            }
+        }
+        return routecache.get(key, () -> loadRoute(key));
+    }
+
+    @Override
+    public List<IRoute> computeRoutes(final Collection<? extends Pair<? extends Position, ? extends Position>> endpoints) {
+        return computeRoutes(endpoints, DEFAULT_VEHICLE);
+    }
+
+    @Override
+    public List<IRoute> computeRoutes(final Collection<? extends Pair<? extends Position, ? extends Position>> endpoints, final Vehicle vehicle) {
+        final List<Triple<Vehicle, Position, Position>> keys = endpoints.stream()
+                .map(p -> new ImmutableTriple<Vehicle, Position, Position>(vehicle, LocalProjection.toLatLong(p.getLeft()), LocalProjection.toLatLong(p.getRight())))
+                .collect(Collectors.toList());
+        final Map<Object, IRoute> cached = routecache.getAllPresent(keys);
+        /*
+         * Each distinct missing pair is computed only once, in parallel.
+         */
+        final Map<Triple<Vehicle, Position, Position>, CompletableFuture<IRoute>> missing = new HashMap<>();
+        for (final Triple<Vehicle, Position, Position> key : keys) {
+            if (!cached.containsKey(key) && !missing.containsKey(key)) {
+                missing.put(key, computeRouteAsync(key));
+            }
+        }
+        final List<IRoute> result = new ArrayList<>(keys.size());
+        for (final Triple<Vehicle, Position, Position> key : keys) {
+            final IRoute route = cached.get(key);
+            if (route == null) {
+                try {
+                    result.add(fromLatLong(missing.get(key).get()));
+                } catch (ExecutionException e) {
+                    throw routingFailure(key.getMiddle(), key.getRight(), vehicle, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw routingFailure(key.getMiddle(), key.getRight(), vehicle, e);
+                }
+            } else {
+                result.add(fromLatLong(route));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<IRoute> computeRouteAsync(final Position p1, final Position p2, final Vehicle vehicle) {
+        final CompletableFuture<IRoute> route = computeRouteAsync(new ImmutableTriple<>(vehicle, LocalProjection.toLatLong(p1), LocalProjection.toLatLong(p2)));
+        return projection == null ? route : route.thenApply(this::fromLatLong);
+    }
+
+    private CompletableFuture<IRoute> computeRouteAsync(final Triple<Vehicle, Position, Position> key) {
+        final IRoute cached = routecache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return route(key);
+            } catch (ExecutionException e) {
+                throw routingFailure(key.getMiddle(), key.getRight(), key.getLeft(), e);
+            }
+        }, routingExecutor);
+    }
+
+    /**
+     * @param executor
+     *            the {@link Executor} used to compute the routes requested in
+     *            batch or asynchronously. By default, the common
+     *            {@link ForkJoinPool} is used. The executor is not serialized:
+     *            a deserialized environment uses the common
+     *            {@link ForkJoinPool} until a new executor is set.
+     */
+    public void setRoutingExecutor(final Executor executor) {
+        routingExecutor = Objects.requireNonNull(executor);
+    }
+
+    private static IllegalStateException routingFailure(final Position p1, final Position p2, final Vehicle vehicle, final Exception e) {
+        L.error("", e);
+        return new IllegalStateException("The navigator was unable to compute a route from " + p1 + " to " + p2 + " using the navigator " + vehicle + ". This is most likely a bug", e);
+    }
+
+    @Override
+    public double computeRouteDistance(final Position p1, final Position p2, final Vehicle vehicle) {
+        return computeRouteMetrics(p1, p2, vehicle).getDistance();
+    }
+
+    @Override
+    public double computeRouteTime(final Position p1, final Position p2, final Vehicle vehicle) {
+        return computeRouteMetrics(p1, p2, vehicle).getTime();
+    }
+
+    /*
+     * Metrics are taken from the route if it is already known, and are
+     * computed without building the geometry otherwise.
+     */
+    private IRoute computeRouteMetrics(final Position p1, final Position p2, final Vehicle vehicle) {
+        final Triple<Vehicle, Position, Position> key = new ImmutableTriple<>(vehicle, LocalProjection.toLatLong(p1), LocalProjection.toLatLong(p2));
+        final IRoute route = routecache.getIfPresent(key);
+        if (route != null) {
+            return route;
         }
         try {
-            return routecache.get(new ImmutableTriple<>(vehicle, p1, p2));
+            if (snapRoutes) {
+                final IRoute snapped = computeRouteAmongJunctions(vehicle, key.getMiddle(), key.getRight(), false);
+                if (snapped != null) {
+                    return snapped;
+                }
+            }
+            return routecache.get(new MetricsKey(key), () -> loadMetrics(key));
         } catch (ExecutionException e) {
-            L.error("", e);
-            throw new IllegalStateException("The navigator was unable to compute a route from " + p1 + " to " + p2 + " using the navigator " + vehicle + ". This is most likely a bug", e);
+            throw routingFailure(p1, p2, vehicle, e);
+        }
+    }
+
+    private IRoute loadMetrics(final Triple<Vehicle, Position, Position> key) throws IOException {
+        final GHRequest req = newRequest(key.getLeft(), key.getMiddle(), key.getRight());
+        /*
+         * Only distance and time are needed: skip the geometry
+         */
+        req.getHints().put(CALC_POINTS, false).put(INSTRUCTIONS, false);
+        final GHResponse resp = requireNavigator(key.getLeft()).route(req);
+        if (resp.hasErrors()) {
+            return NO_ROUTE;
+        }
+        return new GraphHopperRoute(new PointList(0, false), resp.getDistance(), resp.getMillis() / 1000d);
+    }
+
+    private static GHRequest newRequest(final Vehicle vehicle, final Position p1, final Position p2) {
+        return new GHRequest(p1.getCoordinate(1), p1.getCoordinate(0), p2.getCoordinate(1), p2.getCoordinate(0))
+                .setAlgorithm(DEFAULT_ALGORITHM)
+                .setVehicle(vehicle.toString())
+                .setWeighting(ROUTING_STRATEGY);
+    }
+
+    /*
+     * Expiration policy shared by all the caches of routing results.
+     */
+    private CacheBuilder<Object, Object> newCacheBuilder() {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (routeCacheExpiration > 0) {
+            return builder
+                .ticker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return simulationNanos;
+                    }
+                })
+                .expireAfterAccess((long) (routeCacheExpiration * NANOS_PER_SECOND), TimeUnit.NANOSECONDS);
+        }
+        return builder.expireAfterAccess(ROUTES_CACHE_WALLCLOCK_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private IRoute loadRoute(final Triple<Vehicle, Position, Position> key) throws IOException {
+        final GraphHopper gh = requireNavigator(key.getLeft());
+        final GHRequest req = newRequest(key.getLeft(), key.getMiddle(), key.getRight());
+        return storedRoute(key.getLeft(), key.getMiddle(), key.getRight(), () -> gh.route(req));
+    }
+
+    private IRoute junctionRoute(final Vehicle vehicle, final int from, final int to) throws ExecutionException {
+        return routecache.get(new ImmutableTriple<>(vehicle, from, to), () -> {
+            final NodeAccess na = requireNavigator(vehicle).getGraph().getNodeAccess();
+            if (from == to) {
+                final PointList junction = new PointList(1, false);
+                junction.add(na.getLatitude(from), na.getLongitude(from));
+                return new GraphHopperRoute(junction, 0, 0);
+            }
+            return loadRoute(new ImmutableTriple<>(vehicle, junction(na, from), junction(na, to)));
+        });
+    }
+
+    /*
+     * The route among the junctions is used if known, otherwise only the
+     * metrics are computed.
+     */
+    private IRoute junctionMetrics(final Vehicle vehicle, final NodeAccess na, final int from, final int to) throws ExecutionException {
+        final IRoute route = routecache.getIfPresent(new ImmutableTriple<>(vehicle, from, to));
+        if (route != null) {
+            return route;
+        }
+        if (from == to) {
+            return new GraphHopperRoute(new PointList(0, false), 0, 0);
+        }
+        final Triple<Vehicle, Position, Position> key = new ImmutableTriple<>(vehicle, junction(na, from), junction(na, to));
+        return routecache.get(new MetricsKey(key), () -> loadMetrics(key));
+    }
+
+    private static Position junction(final NodeAccess na, final int node) {
+        return new LatLongPosition(na.getLatitude(node), na.getLongitude(node));
+    }
+
+    /*
+     * Looks the route up in the store of the vehicle, if any, and computes
+     * and stores it otherwise. Failed responses are never stored, and give
+     * NO_ROUTE.
+     */
+    private IRoute storedRoute(final Vehicle vehicle, final Position p1, final Position p2, final Supplier<GHResponse> routing) {
+        final Optional<RouteStore> store = getRouteStore(vehicle);
+        final IRoute stored = store.map(s -> s.get(p1, p2)).orElse(null);
+        if (stored != null) {
+            return stored;
+        }
+        final GHResponse resp = routing.get();
+        if (resp.hasErrors()) {
+            return NO_ROUTE;
+        }
+        final IRoute route = new GraphHopperRoute(resp);
+        store.ifPresent(s -> s.put(p1, p2, route));
+        return route;
+    }
+
+    private Optional<RouteStore> getRouteStore(final Vehicle vehicle) {
+        if (!persistRoutes) {
+            return Optional.empty();
+        }
+        return routeStores.computeIfAbsent(vehicle, v -> {
+            final File storeFile = new File(workdir + SLASH + ROUTE_STORE_PREFIX + v + ROUTE_STORE_EXTENSION);
+            try {
+                return Optional.of(RouteStore.open(storeFile));
+            } catch (IOException e) {
+                L.warn("Unable to use " + storeFile + " to store the routes for " + v, e);
+                return Optional.empty();
+            }
+        });
+    }
+
+    private Cache<Object, IRoute> buildRoutesCache() {
+        if (routeCacheBytes > 0) {
+            return newCacheBuilder()
+                .maximumWeight(routeCacheBytes)
+                .<Object, IRoute>weigher((key, route) -> routeWeight(route))
+                .build();
+        }
+        return newCacheBuilder()
+            .maximumSize(ROUTES_CACHE_SIZE)
+            .build();
+    }
+
+    /*
+     * Both the ends are snapped to the closest edge, and the fastest among
+     * the combinations of the junctions at the ends of such edges is picked.
+     * Only the path among junctions is cached, the partial edges are attached
+     * on the fly. Without geometry, only the metrics of the path among
+     * junctions are computed, and the route has no points. Returns null if the
+     * route can not be built this way, e.g. because both the ends lie on the
+     * same edge.
+     */
+    private IRoute computeRouteAmongJunctions(final Vehicle vehicle, final Position p1, final Position p2, final boolean geometry) throws ExecutionException {
+        final GraphHopper gh = getNavigator(vehicle);
+        if (gh == null) {
+            return null;
+        }
+        final FlagEncoder encoder = gh.getEncodingManager().getEncoder(vehicle.toString());
+        final EdgeFilter filter = new DefaultEdgeFilter(encoder);
+        final QueryResult qr1 = gh.getLocationIndex().findClosest(p1.getCoordinate(1), p1.getCoordinate(0), filter);
+        final QueryResult qr2 = gh.getLocationIndex().findClosest(p2.getCoordinate(1), p2.getCoordinate(0), filter);
+        if (!qr1.isValid() || !qr2.isValid() || qr1.getClosestEdge().getEdge() == qr2.getClosestEdge().getEdge()) {
+            return null;
+        }
+        final EdgeSnap start = new EdgeSnap(qr1, encoder, geometry);
+        final EdgeSnap end = new EdgeSnap(qr2, encoder, geometry);
+        final NodeAccess na = gh.getGraph().getNodeAccess();
+        IRoute core = null;
+        int exit = NO_NODE;
+        int entry = NO_NODE;
+        double best = Double.POSITIVE_INFINITY;
+        /*
+         * Junctions which can not be connected have NaN time, and never win
+         * the comparison
+         */
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                final double partials = start.outgoing[i] + end.incoming[j];
+                if (partials < best) {
+                    final IRoute candidate = geometry
+                            ? junctionRoute(vehicle, start.nodes[i], end.nodes[j])
+                            : junctionMetrics(vehicle, na, start.nodes[i], end.nodes[j]);
+                    final double time = partials + candidate.getTime();
+                    if (time < best) {
+                        best = time;
+                        core = candidate;
+                        exit = i;
+                        entry = j;
+                    }
+                }
+            }
+        }
+        if (core == null) {
+            return null;
+        }
+        final double distance = start.distances[exit] + core.getDistance() + end.distances[entry];
+        if (!geometry) {
+            return new GraphHopperRoute(new PointList(0, false), distance, best);
+        }
+        final PointList points = new PointList(start.partials[exit].getSize() + core.getPointsNumber() + end.partials[entry].getSize(), false);
+        points.add(start.partials[exit]);
+        for (int i = 1; i < core.getPointsNumber(); i++) {
+            final Position p = core.getPoint(i);
+            points.add(p.getCoordinate(1), p.getCoordinate(0));
+        }
+        final PointList last = end.partials[entry];
+        for (int i = last.getSize() - 2; i >= 0; i--) {
+            points.add(last.getLatitude(i), last.getLongitude(i));
+        }
+        return new GraphHopperRoute(points, distance, best);
+    }
+
+    private static int routeWeight(final IRoute route) {
+        return (int) Math.min(Integer.MAX_VALUE, ROUTE_BYTES_OVERHEAD + (long) route.getPointsNumber() * ROUTE_BYTES_PER_POINT);
+    }
+
+    /**
+     * The simulation time can only grow: late notifications must not move the
+     * clock of the caches backwards.
+     */
+    @Override
+    public void setSimulationTime(final Time time) {
+        final long nanos = (long) (time.toDouble() * NANOS_PER_SECOND);
+        if (nanos > simulationNanos) {
+            simulationNanos = nanos;
         }
     }
 
@@ -386,15 +1068,176 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
         return computeRoute(getPosition(node), coord, vehicle);
     }
 
+    @Override
+    public double[] computeNetworkDistances(final Position center, final List<? extends Position> targets, final double maxDistance, final Vehicle vehicle) {
+        return computeNetworkDistances(Collections.singletonList(center), targets, maxDistance, vehicle)[0];
+    }
+
+    @Override
+    public double[][] computeNetworkDistances(final List<? extends Position> origins, final List<? extends Position> targets, final double maxDistance, final Vehicle vehicle) {
+        final double[][] result = new double[origins.size()][targets.size()];
+        for (final double[] row : result) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        final GraphHopper gh = getNavigator(vehicle);
+        if (gh == null) {
+            return result;
+        }
+        /*
+         * A path along the streets is never shorter than the straight line:
+         * targets farther than maxDistance from an origin are not searched
+         * from it, and those far from every origin are not even snapped.
+         * GraphHopper measures edges on a slightly smaller sphere, hence the
+         * tolerance.
+         */
+        final double[][] from = toLatLongArrays(origins);
+        final double[][] to = toLatLongArrays(targets);
+        final int[][] reachable = new int[origins.size()][];
+        final boolean[] required = new boolean[targets.size()];
+        final int[] buffer = new int[targets.size()];
+        for (int i = 0; i < reachable.length; i++) {
+            final int count = MapUtils.getIndicesWithinRange(from[0][i], from[1][i], to[0], to[1], maxDistance * (1 + STRAIGHT_LINE_TOLERANCE), buffer);
+            reachable[i] = Arrays.copyOf(buffer, count);
+            for (final int j : reachable[i]) {
+                required[j] = true;
+            }
+        }
+        final FlagEncoder encoder = gh.getEncodingManager().getEncoder(vehicle.toString());
+        final EdgeFilter filter = new DefaultEdgeFilter(encoder);
+        final EdgeSnap[] toSnaps = new EdgeSnap[targets.size()];
+        final double[] toOffsets = new double[targets.size()];
+        snapToEdges(gh, encoder, filter, to, required, toSnaps, toOffsets);
+        final EdgeSnap[] fromSnaps = new EdgeSnap[origins.size()];
+        final double[] fromOffsets = new double[origins.size()];
+        snapToEdges(gh, encoder, filter, from, null, fromSnaps, fromOffsets);
+        /*
+         * The search is reused across calls. It is restarted from each
+         * junction of the edge of each origin, seeded with the partial edge
+         * leading there; once a target junction is settled, the following
+         * targets continue the same search instead of starting a new one.
+         */
+        final DijkstraOneToMany search = oneToManySearches.get().computeIfAbsent(vehicle,
+                v -> new DijkstraOneToMany(gh.getGraph().getBaseGraph(), encoder, new ShortestWeighting(), TraversalMode.NODE_BASED));
+        for (int i = 0; i < fromSnaps.length; i++) {
+            final EdgeSnap origin = fromSnaps[i];
+            if (origin != null && reachable[i].length > 0) {
+                final double[] row = result[i];
+                for (final int j : reachable[i]) {
+                    final EdgeSnap target = toSnaps[j];
+                    if (target != null) {
+                        row[j] = origin.distanceAlongEdge(target);
+                    }
+                }
+                for (int exit = 0; exit < 2; exit++) {
+                    if (origin.canLeave(exit) && origin.distances[exit] <= maxDistance) {
+                        search.clear();
+                        search.setWeightLimit(maxDistance - origin.distances[exit]);
+                        final int fromNode = origin.nodes[exit];
+                        for (final int j : reachable[i]) {
+                            final EdgeSnap target = toSnaps[j];
+                            for (int entry = 0; target != null && entry < 2; entry++) {
+                                final int toNode = target.nodes[entry];
+                                if (target.canReach(entry)) {
+                                    final double weight = fromNode == toNode ? 0
+                                            : search.findEndNode(fromNode, toNode) == toNode ? search.getWeight(toNode) : Double.POSITIVE_INFINITY;
+                                    row[j] = Math.min(row[j], origin.distances[exit] + weight + target.distances[entry]);
+                                }
+                            }
+                        }
+                    }
+                }
+                for (final int j : reachable[i]) {
+                    final double total = row[j] + fromOffsets[i] + toOffsets[j];
+                    row[j] = total <= maxDistance ? total : Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double[] getDistances(final Node<T> center, final List<? extends Node<T>> nodes) {
+        final double[] result = new double[nodes.size()];
+        final double[] xs = new double[nodes.size()];
+        final double[] ys = new double[nodes.size()];
+        for (int i = 0; i < result.length; i++) {
+            final Position p = getPosition(nodes.get(i));
+            xs[i] = p.getCoordinate(0);
+            ys[i] = p.getCoordinate(1);
+        }
+        final Position c = getPosition(center);
+        final double cx = c.getCoordinate(0);
+        final double cy = c.getCoordinate(1);
+        if (projection == null) {
+            switch (distanceFormula) {
+            case FLAT_EARTH:
+                return MapUtils.getFlatDistances(cy, cx, ys, xs, result);
+            case HAVERSINE:
+                return MapUtils.getDistances(cy, cx, ys, xs, result);
+            default:
+                /*
+                 * No batch version: the center measures each distance
+                 */
+                final Position from = fromLatLong(c);
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = from.getDistanceTo(getPosition(nodes.get(i)));
+                }
+                return result;
+            }
+        }
+        for (int i = 0; i < result.length; i++) {
+            final double dx = xs[i] - cx;
+            final double dy = ys[i] - cy;
+            result[i] = Math.sqrt(dx * dx + dy * dy);
+        }
+        return result;
+    }
+
+    /*
+     * Latitudes in the first row, longitudes in the second.
+     */
+    private static double[][] toLatLongArrays(final List<? extends Position> positions) {
+        final double[][] result = new double[2][positions.size()];
+        for (int i = 0; i < positions.size(); i++) {
+            final Position p = LocalProjection.toLatLong(positions.get(i));
+            result[0][i] = p.getCoordinate(1);
+            result[1][i] = p.getCoordinate(0);
+        }
+        return result;
+    }
+
+    /*
+     * Each position is snapped to the closest edge, and the straight line
+     * distance to the snapped point is stored as offset. Positions not
+     * required, if a mask is passed, or far from any edge, get no snap.
+     */
+    private static void snapToEdges(final GraphHopper gh, final FlagEncoder encoder, final EdgeFilter filter,
+            final double[][] latLongs, final boolean[] required, final EdgeSnap[] snaps, final double[] offsets) {
+        for (int i = 0; i < snaps.length; i++) {
+            if (required == null || required[i]) {
+                final double lat = latLongs[0][i];
+                final double lon = latLongs[1][i];
+                final QueryResult qr = gh.getLocationIndex().findClosest(lat, lon, filter);
+                if (qr.isValid()) {
+                    final GHPoint snapped = qr.getSnappedPoint();
+                    snaps[i] = new EdgeSnap(qr, encoder, false);
+                    offsets[i] = MapUtils.getDistance(lat, lon, snapped.lat, snapped.lon);
+                }
+            }
+        }
+    }
+
     private Optional<Position> getNearestStreetPoint(final Position position) {
         assert position != null;
-        mapLock.read();
-        final GraphHopper gh = navigators.get(Vehicle.BIKE);
-        mapLock.release();
-        final QueryResult qr = gh.getLocationIndex().findClosest(position.getCoordinate(1), position.getCoordinate(0), EdgeFilter.ALL_EDGES);
+        final GraphHopper gh = getNavigator(Vehicle.BIKE);
+        if (gh == null) {
+            return Optional.empty();
+        }
+        final Position latLong = LocalProjection.toLatLong(position);
+        final QueryResult qr = gh.getLocationIndex().findClosest(latLong.getCoordinate(1), latLong.getCoordinate(0), EdgeFilter.ALL_EDGES);
         if (qr.isValid()) {
             final GHPoint pt = qr.getSnappedPoint();
-            return Optional.of(new LatLongPosition(pt.lat, pt.lon));
+            return Optional.of(fromLatLong(new LatLongPosition(pt.lat, pt.lon)));
         }
         return Optional.empty();
     }
@@ -408,28 +1251,50 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
      * @return the minimum latitude
      */
     protected double getMinLatitude() {
-        return getOffset()[1];
+        return getLatLongBounds()[0];
     }
 
     /**
      * @return the maximum latitude
      */
     protected double getMaxLatitude() {
-        return getOffset()[1] + getSize()[1];
+        return getLatLongBounds()[2];
     }
 
     /**
      * @return the minimum longitude
      */
     protected double getMinLongitude() {
-        return getOffset()[0];
+        return getLatLongBounds()[1];
     }
 
     /**
      * @return the maximum longitude
      */
     protected double getMaxLongitude() {
-        return getOffset()[0] + getSize()[0];
+        return getLatLongBounds()[3];
+    }
+
+    /*
+     * Minimum latitude, minimum longitude, maximum latitude and maximum
+     * longitude. Projected bounds are converted through their corners.
+     */
+    private double[] getLatLongBounds() {
+        final double[] offset = getOffset();
+        final double[] size = getSize();
+        if (projection == null) {
+            return new double[] { offset[1], offset[0], offset[1] + size[1], offset[0] + size[0] };
+        }
+        final double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        final double[] corner = new double[2];
+        for (int i = 0; i < 4; i++) {
+            projection.unproject(offset[0] + (i & 1) * size[0], offset[1] + (i >> 1) * size[1], corner);
+            bounds[0] = Math.min(bounds[0], corner[0]);
+            bounds[1] = Math.min(bounds[1], corner[1]);
+            bounds[2] = Math.max(bounds[2], corner[0]);
+            bounds[3] = Math.max(bounds[3], corner[1]);
+        }
+        return bounds;
     }
 
     /**
@@ -455,40 +1320,50 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
              * Otherwise, put it where it is declared.
              */
             assert position != null;
-            return forceStreets ? getNearestStreetPoint(position).orElse(position) : position;
+            final Position actual = fromLatLong(position);
+            return forceStreets ? getNearestStreetPoint(actual).orElse(actual) : actual;
         }
         assert trace.getPreviousPosition(0) != null;
         assert trace.getPreviousPosition(0).toPosition() != null;
-        return trace.getPreviousPosition(0).toPosition();
+        return fromLatLong(trace.getPreviousPosition(0).toPosition());
+    }
+
+    /**
+     * If coordinates are projected, positions in latitude and longitude are
+     * projected before moving the node.
+     */
+    @Override
+    public void moveNodeToPosition(final Node<T> node, final Position position) {
+        super.moveNodeToPosition(node, fromLatLong(position));
     }
 
     @Override
     public Position getNextPosition(final Node<T> node, final Time time) {
-        final IGPSTrace trace = traces.get(node.getId());
-        if (trace == null) {
+        final IGPSTraceCursor cursor = cursors.get(node.getId());
+        if (cursor == null) {
             return getPosition(node);
         }
-        assert trace.getNextPosition(time.toDouble()) != null;
-        return trace.getNextPosition(time.toDouble()).toPosition();
+        return fromLatLong(cursor.getNextPosition(time.toDouble()).toPosition());
     }
 
     @Override
     public Position getPreviousPosition(final Node<T> node, final Time time) {
-        final IGPSTrace trace = traces.get(node.getId());
-        if (trace == null) {
+        final IGPSTraceCursor cursor = cursors.get(node.getId());
+        if (cursor == null) {
             return getPosition(node);
         }
-        assert trace.getPreviousPosition(time.toDouble()) != null;
-        return trace.getPreviousPosition(time.toDouble()).toPosition();
+        return fromLatLong(cursor.getPreviousPosition(time.toDouble()).toPosition());
     }
 
     @Override
     public Position getExpectedPosition(final Node<T> node, final Time time) {
-        final IGPSTrace trace = traces.get(node.getId());
-        if (trace == null) {
+        final IGPSTraceCursor cursor = cursors.get(node.getId());
+        if (cursor == null) {
             return getPosition(node);
         }
-        return trace.interpolate(time.toDouble()).toPosition();
+        final double[] latLon = interpolations.get();
+        cursor.interpolate(time.toDouble(), latLon);
+        return fromLatLong(latLon[0], latLon[1], latLon);
     }
 
     @Override
@@ -496,13 +1371,192 @@ public class OSMEnvironment<T> extends Continuous2DEnvironment<T> implements IMa
         return traces.get(node.getId());
     }
 
+    @Override
+    public int[] getActiveTraces(final double from, final double to) {
+        return traceTimes.active(from, to);
+    }
+
+    @Override
+    public int[] getStartingTraces(final double from, final double to) {
+        return traceTimes.starting(from, to);
+    }
+
+    @Override
+    public int[] getEndingTraces(final double from, final double to) {
+        return traceTimes.ending(from, to);
+    }
+
+    @Override
+    public List<ITraceSampleRange> getTraceSamples(final Position cornerPosition, final Position oppositePosition, final double from, final double to) {
+        final Position corner = LocalProjection.toLatLong(cornerPosition);
+        final Position opposite = LocalProjection.toLatLong(oppositePosition);
+        return getTraceGrid().query(
+                Math.min(corner.getCoordinate(1), opposite.getCoordinate(1)),
+                Math.min(corner.getCoordinate(0), opposite.getCoordinate(0)),
+                Math.max(corner.getCoordinate(1), opposite.getCoordinate(1)),
+                Math.max(corner.getCoordinate(0), opposite.getCoordinate(0)),
+                from, to);
+    }
+
+    /*
+     * Indexing visits every point: the grid is only built if queried.
+     */
+    private TraceGridIndex getTraceGrid() {
+        TraceGridIndex grid = traceGrid;
+        if (grid == null) {
+            synchronized (traces) {
+                grid = traceGrid;
+                if (grid == null) {
+                    grid = new TraceGridIndex(traces);
+                    traceGrid = grid;
+                }
+            }
+        }
+        return grid;
+    }
+
     private boolean canWriteOnDir(final String dir) {
         return new File(dir).canWrite();
     }
 
     private void readObject(final ObjectInputStream s) throws IOException, ClassNotFoundException {
         s.defaultReadObject();
+        /*
+         * Environments serialized before navigators were loaded lazily
+         * loaded all of them at once
+         */
+        if (preloadedVehicles == null) {
+            preloadedVehicles = EnumSet.allOf(Vehicle.class);
+        }
+        /*
+         * ...and prepared contraction hierarchies for none of them
+         */
+        if (contractedVehicles == null) {
+            contractedVehicles = EnumSet.noneOf(Vehicle.class);
+        }
+        if (distanceFormula == null) {
+            distanceFormula = DEFAULT_DISTANCE_FORMULA;
+        }
         initAll(mapResource);
+        /*
+         * Executors can not be serialized: fall back to the default one
+         */
+        routingExecutor = ForkJoinPool.commonPool();
+    }
+
+    /*
+     * Keeps the metrics of a route apart from the route itself in the cache.
+     */
+    private static final class MetricsKey {
+        private final Triple<Vehicle, Position, Position> route;
+
+        private MetricsKey(final Triple<Vehicle, Position, Position> route) {
+            this.route = route;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof MetricsKey && route.equals(((MetricsKey) obj).route);
+        }
+
+        @Override
+        public int hashCode() {
+            return ~route.hashCode();
+        }
+    }
+
+    /*
+     * A position snapped on an edge of the graph. Index 0 refers to the base
+     * junction of the edge, index 1 to the adjacent one. The partial edges go
+     * from the snapped point to each junction, and their geometry is only
+     * built if requested.
+     */
+    private static final class EdgeSnap {
+        private final int edge;
+        private final int[] nodes = new int[2];
+        private final PointList[] partials = new PointList[2];
+        private final double[] distances = new double[2];
+        private final double[] outgoing = new double[2];
+        private final double[] incoming = new double[2];
+
+        private EdgeSnap(final QueryResult qr, final FlagEncoder encoder, final boolean geometry) {
+            final EdgeIteratorState state = qr.getClosestEdge();
+            final long flags = state.getFlags();
+            final double forward = encoder.isForward(flags) ? encoder.getSpeed(flags) : 0;
+            final double backward = encoder.isBackward(flags) ? encoder.getReverseSpeed(flags) : 0;
+            final PointList wayGeometry = state.fetchWayGeometry(3);
+            final GHPoint snapped = qr.getSnappedPoint();
+            final int segment = qr.getWayIndex();
+            edge = state.getEdge();
+            nodes[0] = state.getBaseNode();
+            nodes[1] = state.getAdjNode();
+            partial(0, snapped, wayGeometry, segment, -1, geometry);
+            partial(1, snapped, wayGeometry, segment + 1, 1, geometry);
+            outgoing[0] = travelTime(distances[0], backward);
+            outgoing[1] = travelTime(distances[1], forward);
+            incoming[0] = travelTime(distances[0], forward);
+            incoming[1] = travelTime(distances[1], backward);
+        }
+
+        private void partial(final int index, final GHPoint snapped, final PointList wayGeometry, final int from, final int step, final boolean geometry) {
+            final PointList points = geometry ? new PointList(wayGeometry.getSize(), false) : null;
+            if (geometry) {
+                points.add(snapped.lat, snapped.lon);
+            }
+            double lat = snapped.lat;
+            double lon = snapped.lon;
+            double distance = 0;
+            for (int i = from; i >= 0 && i < wayGeometry.getSize(); i += step) {
+                final double d = MapUtils.getDistance(lat, lon, wayGeometry.getLatitude(i), wayGeometry.getLongitude(i));
+                if (d > 0) {
+                    lat = wayGeometry.getLatitude(i);
+                    lon = wayGeometry.getLongitude(i);
+                    if (geometry) {
+                        points.add(lat, lon);
+                    }
+                    distance += d;
+                }
+            }
+            partials[index] = points;
+            distances[index] = distance;
+        }
+
+        /*
+         * The junction can be reached from the snapped point.
+         */
+        private boolean canLeave(final int index) {
+            return !Double.isInfinite(outgoing[index]);
+        }
+
+        /*
+         * The snapped point can be reached from the junction.
+         */
+        private boolean canReach(final int index) {
+            return !Double.isInfinite(incoming[index]);
+        }
+
+        /*
+         * Distance to another point of the same edge, without leaving it.
+         * The two snaps may see the edge in opposite directions.
+         */
+        private double distanceAlongEdge(final EdgeSnap other) {
+            if (edge != other.edge) {
+                return Double.POSITIVE_INFINITY;
+            }
+            final double otherFromBase = nodes[0] == other.nodes[0] ? other.distances[0] : other.distances[1];
+            final double delta = otherFromBase - distances[0];
+            if (delta >= 0) {
+                return canLeave(1) ? delta : Double.POSITIVE_INFINITY;
+            }
+            return canLeave(0) ? -delta : Double.POSITIVE_INFINITY;
+        }
+
+        private static double travelTime(final double distance, final double speed) {
+            if (distance == 0) {
+                return 0;
+            }
+            return speed > 0 ? distance * MS_TO_KMH / speed : Double.POSITIVE_INFINITY;
+        }
     }
 
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations.environments;
+
+import it.unibo.alchemist.model.implementations.actions.MoveOnMap;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition.DistanceFormula;
+import it.unibo.alchemist.model.implementations.positions.ProjectedPosition;
+import it.unibo.alchemist.model.interfaces.IMapEnvironment;
+import it.unibo.alchemist.model.interfaces.Node;
+import it.unibo.alchemist.model.interfaces.Reaction;
+import it.unibo.alchemist.model.interfaces.Time;
+import it.unibo.alchemist.model.interfaces.Vehicle;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Navigation and caching options of an {@link OSMEnvironment}. Each setter
+ * returns the options themselves, so that they can be chained. Options not
+ * set keep their default value.
+ */
+public final class OSMEnvironmentOptions {
+
+    private boolean sharedGraph = OSMEnvironment.DEFAULT_SHARED_GRAPH;
+    private final Set<Vehicle> preload = new LinkedHashSet<>();
+    private Set<Vehicle> contract;
+    private long routeCacheBytes = OSMEnvironment.DEFAULT_ROUTE_CACHE_BYTES;
+    private double routeCacheExpiration = OSMEnvironment.DEFAULT_ROUTE_CACHE_EXPIRATION;
+    private boolean snapRoutes = OSMEnvironment.DEFAULT_SNAP_ROUTES;
+    private boolean persistRoutes = OSMEnvironment.DEFAULT_PERSISTENT_ROUTES;
+    private boolean projectedCoordinates = OSMEnvironment.DEFAULT_PROJECTED_COORDINATES;
+    private DistanceFormula distanceFormula = OSMEnvironment.DEFAULT_DISTANCE_FORMULA;
+
+    /**
+     * @param share
+     *            if true, each graph carries the data of several
+     *            {@link Vehicle}s, and is built parsing the map once. The
+     *            flags of all the {@link Vehicle}s do not fit the edges of a
+     *            single graph: they are packed in as few graphs as possible.
+     *            Otherwise, a separate graph is built for each
+     *            {@link Vehicle}.
+     * @return these options
+     */
+    public OSMEnvironmentOptions sharedGraph(final boolean share) {
+        sharedGraph = share;
+        return this;
+    }
+
+    /**
+     * @param vehicles
+     *            the {@link Vehicle}s whose navigation data must be loaded
+     *            immediately. Navigation data for any other {@link Vehicle}
+     *            is loaded the first time it gets used.
+     * @return these options
+     */
+    public OSMEnvironmentOptions preload(final Vehicle... vehicles) {
+        preload.clear();
+        preload.addAll(Arrays.asList(vehicles));
+        return this;
+    }
+
+    /**
+     * @param vehicles
+     *            the {@link Vehicle}s for which contraction hierarchies are
+     *            prepared, for the fastest weighting. Preparation is done once
+     *            and stored along with the map data, and makes routing much
+     *            faster. Other {@link Vehicle}s are routed with plain
+     *            bidirectional Dijkstra. Each shared graph is contracted for
+     *            one of them only. If not set, all the {@link Vehicle}s are
+     *            contracted with separate graphs, and with shared graphs the
+     *            first preloaded one, or the default one if none is
+     *            preloaded.
+     * @return these options
+     */
+    public OSMEnvironmentOptions contract(final Vehicle... vehicles) {
+        contract = EnumSet.noneOf(Vehicle.class);
+        contract.addAll(Arrays.asList(vehicles));
+        return this;
+    }
+
+    /**
+     * @param bytes
+     *            the approximate amount of memory, in bytes, that cached
+     *            routes and route metrics may take. Routes are weighted by
+     *            their number of points, so that a long route counts more
+     *            than a short one. If non positive, at most 10000 entries
+     *            are cached, regardless of their size.
+     * @return these options
+     */
+    public OSMEnvironmentOptions routeCacheBytes(final long bytes) {
+        routeCacheBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @param expiration
+     *            if positive, the simulation time after which a cached route
+     *            which has not been accessed gets evicted. Simulation time is
+     *            the latest one notified through
+     *            {@link IMapEnvironment#setSimulationTime(Time)}, as the
+     *            {@link MoveOnMap} actions built with their {@link Reaction}
+     *            do at each step. If non positive, routes expire after ten
+     *            minutes of wall clock time without being accessed.
+     * @return these options
+     */
+    public OSMEnvironmentOptions routeCacheExpiration(final double expiration) {
+        routeCacheExpiration = expiration;
+        return this;
+    }
+
+    /**
+     * @param snap
+     *            if true, both the ends of a route are snapped to the closest
+     *            street, and only the path among the junctions at the ends of
+     *            such streets is cached. Routes starting or ending anywhere
+     *            along the same streets share the same cached path, which is
+     *            very effective for nodes that reroute while walking.
+     * @return these options
+     */
+    public OSMEnvironmentOptions snapRoutes(final boolean snap) {
+        snapRoutes = snap;
+        return this;
+    }
+
+    /**
+     * @param persist
+     *            if true, the computed routes are also written to disk, along
+     *            with the navigation data of the map, and looked up there
+     *            before being computed. The stored routes survive across
+     *            runs, and can be shared by several processes at once.
+     * @return these options
+     */
+    public OSMEnvironmentOptions persistRoutes(final boolean persist) {
+        persistRoutes = persist;
+        return this;
+    }
+
+    /**
+     * @param project
+     *            if true, nodes are placed on a local tangent plane centered
+     *            in the map, and their positions are
+     *            {@link ProjectedPosition}s, in meters. Distances and
+     *            movements become Euclidean, and coordinates are converted
+     *            back to latitude and longitude only to query the navigation
+     *            engine. Suitable for maps spanning up to some tens of
+     *            kilometers.
+     * @return these options
+     */
+    public OSMEnvironmentOptions projectedCoordinates(final boolean project) {
+        projectedCoordinates = project;
+        return this;
+    }
+
+    /**
+     * @param formula
+     *            the formula used to compute distances between the
+     *            {@link LatLongPosition}s of the nodes, and by
+     *            {@link IMapEnvironment#getDistances(Node, List)}. Positions
+     *            passed to the environment are converted to use it.
+     *            {@link DistanceFormula#FLAT_EARTH} is the cheapest, and
+     *            accurate enough for maps of a city. Ignored if coordinates
+     *            are projected.
+     * @return these options
+     */
+    public OSMEnvironmentOptions distanceFormula(final DistanceFormula formula) {
+        distanceFormula = Objects.requireNonNull(formula);
+        return this;
+    }
+
+    /**
+     * @return true if vehicles share their graphs
+     */
+    public boolean isSharedGraph() {
+        return sharedGraph;
+    }
+
+    /**
+     * @return the vehicles whose navigation data is loaded immediately, in
+     *         the order they were given
+     */
+    public Set<Vehicle> getPreloadedVehicles() {
+        return Collections.unmodifiableSet(preload);
+    }
+
+    /**
+     * @return the vehicles for which contraction hierarchies are prepared
+     */
+    public Set<Vehicle> getContractedVehicles() {
+        if (contract != null) {
+            return Collections.unmodifiableSet(contract);
+        }
+        /*
+         * A shared graph can only be contracted for one vehicle: asking for
+         * all of them would leave most of them uncontracted anyway.
+         */
+        if (sharedGraph) {
+            return Collections.singleton(preload.isEmpty() ? IMapEnvironment.DEFAULT_VEHICLE : preload.iterator().next());
+        }
+        return Collections.unmodifiableSet(EnumSet.allOf(Vehicle.class));
+    }
+
+    /**
+     * @return the approximate memory budget of the route cache, in bytes
+     */
+    public long getRouteCacheBytes() {
+        return routeCacheBytes;
+    }
+
+    /**
+     * @return the simulation time after which unused cached routes expire
+     */
+    public double getRouteCacheExpiration() {
+        return routeCacheExpiration;
+    }
+
+    /**
+     * @return true if routes are cached among junctions
+     */
+    public boolean isSnapRoutes() {
+        return snapRoutes;
+    }
+
+    /**
+     * @return true if routes are stored on disk
+     */
+    public boolean isPersistRoutes() {
+        return persistRoutes;
+    }
+
+    /**
+     * @return true if positions are projected on a plane
+     */
+    public boolean isProjectedCoordinates() {
+        return projectedCoordinates;
+    }
+
+    /**
+     * @return the formula used to compute distances
+     */
+    public DistanceFormula getDistanceFormula() {
+        return distanceFormula;
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations.environments;
+
+import it.unibo.alchemist.model.implementations.GraphHopperRoute;
+import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.model.interfaces.Position;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.graphhopper.util.PointList;
+
+/**
+ * Append-only file of computed routes, read through a memory mapping. The
+ * file starts with a magic number and a version (two ints), followed by
+ * records made of: the number of points (int); the latitude and longitude of
+ * the requested start and end, the distance and the time of the route (six
+ * doubles); latitude and longitude of each point (two doubles per point).
+ * 
+ * Records are appended under an exclusive file lock, so several processes can
+ * share the same file. Records appended since the last lookup, by this or
+ * other processes, are indexed the first time a lookup misses: only the new
+ * part of the file gets mapped. Within the same JVM, a single instance per
+ * file is shared, since file locks are held on behalf of the whole JVM. Open
+ * stores are closed when the JVM shuts down.
+ */
+final class RouteStore {
+
+    private static final int MAGIC = 0x414C5253;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + 6 * Double.BYTES;
+    private static final int POINT_SIZE = 2 * Double.BYTES;
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+    /*
+     * Once there are more mapped regions than this, the whole file is mapped
+     * again in a single region.
+     */
+    private static final int MAX_REGIONS = 16;
+    private static final Logger L = LoggerFactory.getLogger(RouteStore.class);
+    private static final Map<File, RouteStore> OPEN_STORES = new HashMap<>();
+    private static boolean closeOnShutdown;
+    private final File file;
+    private final FileChannel channel;
+    private final Map<Endpoints, Integer> index = new HashMap<>();
+    /*
+     * Mapped regions of the file, by start offset. Each region starts at a
+     * record boundary, and contains all the records starting in it.
+     */
+    private final NavigableMap<Integer, MappedByteBuffer> regions = new TreeMap<>();
+    private int indexed = HEADER_SIZE;
+    private boolean full;
+    private boolean invalid;
+
+    /**
+     * @param file
+     *            the file where routes are stored. It is created if it does
+     *            not exist.
+     * @return the {@link RouteStore} for the file
+     * @throws IOException
+     *             if the file can not be opened, or it is not a route store
+     */
+    static synchronized RouteStore open(final File file) throws IOException {
+        final File key = file.getCanonicalFile();
+        RouteStore store = OPEN_STORES.get(key);
+        if (store == null) {
+            store = new RouteStore(key);
+            OPEN_STORES.put(key, store);
+            if (!closeOnShutdown) {
+                Runtime.getRuntime().addShutdownHook(new Thread(RouteStore::closeAll, "RouteStore shutdown"));
+                closeOnShutdown = true;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Closes all the open stores. Stores opened afterwards are new instances.
+     */
+    static synchronized void closeAll() {
+        for (final RouteStore store : OPEN_STORES.values()) {
+            store.close();
+        }
+        OPEN_STORES.clear();
+    }
+
+    private synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            L.warn("Unable to close " + file, e);
+        }
+        regions.clear();
+        index.clear();
+    }
+
+    @SuppressWarnings("try")
+    private RouteStore(final File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        /*
+         * The lock is only held while the block runs, and never referenced
+         */
+        try (FileLock lock = channel.lock()) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                write(header, 0);
+            } else {
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    channel.close();
+                    throw new IOException(file + " is not a route store, or it has been written by an incompatible version.");
+                }
+            }
+            catchUp();
+            /*
+             * No other process is writing: an incomplete or invalid record
+             * is the leftover of a crash, and would hide all the following
+             * ones.
+             */
+            if (channel.size() > indexed && channel.size() < MAX_SIZE) {
+                L.warn("Discarding {} bytes of incomplete data from {}", channel.size() - indexed, file);
+                channel.truncate(indexed);
+                invalid = false;
+            }
+        }
+        L.info("{} routes available in {}", index.size(), file);
+    }
+
+    /**
+     * @param from
+     *            the requested start
+     * @param to
+     *            the requested end
+     * @return the stored route, or null if there is none
+     */
+    synchronized IRoute get(final Position from, final Position to) {
+        if (!channel.isOpen()) {
+            return null;
+        }
+        final Endpoints key = new Endpoints(from, to);
+        Integer position = index.get(key);
+        if (position == null) {
+            try {
+                catchUp();
+            } catch (IOException e) {
+                L.warn("Unable to read new routes from " + file, e);
+            }
+            position = index.get(key);
+            if (position == null) {
+                return null;
+            }
+        }
+        final Map.Entry<Integer, MappedByteBuffer> region = regions.floorEntry(position);
+        final MappedByteBuffer mapped = region.getValue();
+        int cursor = position - region.getKey();
+        final int size = mapped.getInt(cursor);
+        cursor += Integer.BYTES + 4 * Double.BYTES;
+        final double distance = mapped.getDouble(cursor);
+        cursor += Double.BYTES;
+        final double time = mapped.getDouble(cursor);
+        cursor += Double.BYTES;
+        final PointList points = new PointList(size, false);
+        for (int i = 0; i < size; i++, cursor += POINT_SIZE) {
+            points.add(mapped.getDouble(cursor), mapped.getDouble(cursor + Double.BYTES));
+        }
+        return new GraphHopperRoute(points, distance, time);
+    }
+
+    /**
+     * @param from
+     *            the requested start
+     * @param to
+     *            the requested end
+     * @param route
+     *            the route to store
+     */
+    @SuppressWarnings("try")
+    synchronized void put(final Position from, final Position to, final IRoute route) {
+        final int size = route.getPointsNumber();
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + size * POINT_SIZE);
+        record.putInt(size)
+            .putDouble(from.getCoordinate(1))
+            .putDouble(from.getCoordinate(0))
+            .putDouble(to.getCoordinate(1))
+            .putDouble(to.getCoordinate(0))
+            .putDouble(route.getDistance())
+            .putDouble(route.getTime());
+        for (int i = 0; i < size; i++) {
+            final Position p = route.getPoint(i);
+            record.putDouble(p.getCoordinate(1)).putDouble(p.getCoordinate(0));
+        }
+        record.flip();
+        if (full || !channel.isOpen()) {
+            return;
+        }
+        /*
+         * The lock is only held while the block runs, and never referenced
+         */
+        try (FileLock lock = channel.lock()) {
+            final long end = channel.size();
+            if (end + record.remaining() <= MAX_SIZE) {
+                write(record, end);
+            } else {
+                full = true;
+                L.warn("{} reached its maximum size of {} bytes: new routes will not be stored", file, MAX_SIZE);
+            }
+        } catch (IOException e) {
+            L.warn("Unable to store a route in " + file, e);
+        }
+    }
+
+    private void write(final ByteBuffer buffer, final long position) throws IOException {
+        long cursor = position;
+        while (buffer.hasRemaining()) {
+            cursor += channel.write(buffer, cursor);
+        }
+    }
+
+    /*
+     * Maps and indexes the records appended since the last call, stopping at
+     * the first incomplete or invalid one.
+     */
+    private void catchUp() throws IOException {
+        final int size = (int) Math.min(channel.size(), MAX_SIZE);
+        if (invalid || size - indexed < RECORD_HEADER_SIZE) {
+            return;
+        }
+        final int start;
+        if (regions.size() < MAX_REGIONS) {
+            start = indexed;
+        } else {
+            regions.clear();
+            start = 0;
+        }
+        final MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, start, size - start);
+        regions.put(start, mapped);
+        while (size - indexed >= RECORD_HEADER_SIZE) {
+            final int offset = indexed - start;
+            final int points = mapped.getInt(offset);
+            final long recordSize = RECORD_HEADER_SIZE + (long) points * POINT_SIZE;
+            if (points < 0 || indexed + recordSize > MAX_SIZE) {
+                L.warn("Invalid record at offset {} of {}: the following routes are ignored", indexed, file);
+                invalid = true;
+                return;
+            }
+            if (recordSize > size - indexed) {
+                return;
+            }
+            final int endpoints = offset + Integer.BYTES;
+            final double lat1 = mapped.getDouble(endpoints);
+            final double lon1 = mapped.getDouble(endpoints + Double.BYTES);
+            final double lat2 = mapped.getDouble(endpoints + 2 * Double.BYTES);
+            final double lon2 = mapped.getDouble(endpoints + 3 * Double.BYTES);
+            index.putIfAbsent(new Endpoints(lat1, lon1, lat2, lon2), indexed);
+            indexed += (int) recordSize;
+        }
+    }
+
+    private static final class Endpoints {
+        private final double lat1, lon1, lat2, lon2;
+        private final int hash;
+
+        private Endpoints(final Position from, final Position to) {
+            this(from.getCoordinate(1), from.getCoordinate(0), to.getCoordinate(1), to.getCoordinate(0));
+        }
+
+        private Endpoints(final double lat1, final double lon1, final double lat2, final double lon2) {
+            this.lat1 = lat1;
+            this.lon1 = lon1;
+            this.lat2 = lat2;
+            this.lon2 = lon2;
+            int h = Double.hashCode(lat1);
+            h = 31 * h + Double.hashCode(lon1);
+            h = 31 * h + Double.hashCode(lat2);
+            hash = 31 * h + Double.hashCode(lon2);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof Endpoints) {
+                final Endpoints e = (Endpoints) obj;
+                return Double.compare(lat1, e.lat1) == 0 && Double.compare(lon1, e.lon1) == 0
+                        && Double.compare(lat2, e.lat2) == 0 && Double.compare(lon2, e.lon2) == 0;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
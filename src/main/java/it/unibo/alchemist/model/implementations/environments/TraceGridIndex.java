@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations.environments;
+
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.ITraceSampleRange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Immutable spatio-temporal index over the points of a set of traces. The
+ * bounding box of all the points is split in a grid of latitude, longitude
+ * and time cells. For each cell, the index stores the runs of consecutive
+ * points of each trace falling in it, as triples of ints (node id, first
+ * index, index after the last), so that queries never build points.
+ */
+final class TraceGridIndex {
+
+    private static final int CELLS = 256;
+    private final TIntObjectMap<IGPSTrace> traces;
+    private final TIntObjectMap<TIntList> cells = new TIntObjectHashMap<>();
+    private final double minLat, minLon, minTime;
+    private final double latSize, lonSize, timeSize;
+
+    /**
+     * @param traces
+     *            the traces to index, by node id
+     */
+    TraceGridIndex(final TIntObjectMap<IGPSTrace> traces) {
+        this.traces = traces;
+        final double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        final double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        traces.forEachValue(trace -> {
+            for (int i = 0; i < trace.size(); i++) {
+                min[0] = Math.min(min[0], trace.getLatitude(i));
+                max[0] = Math.max(max[0], trace.getLatitude(i));
+                min[1] = Math.min(min[1], trace.getLongitude(i));
+                max[1] = Math.max(max[1], trace.getLongitude(i));
+                min[2] = Math.min(min[2], trace.getTime(i));
+                max[2] = Math.max(max[2], trace.getTime(i));
+            }
+            return true;
+        });
+        minLat = min[0];
+        minLon = min[1];
+        minTime = min[2];
+        latSize = cellSize(min[0], max[0]);
+        lonSize = cellSize(min[1], max[1]);
+        timeSize = cellSize(min[2], max[2]);
+        traces.forEachEntry((id, trace) -> {
+            int runStart = 0;
+            int runKey = -1;
+            for (int i = 0; i < trace.size(); i++) {
+                final int key = key(
+                        cell(trace.getLatitude(i), minLat, latSize),
+                        cell(trace.getLongitude(i), minLon, lonSize),
+                        cell(trace.getTime(i), minTime, timeSize));
+                if (key != runKey) {
+                    addRun(runKey, id, runStart, i);
+                    runKey = key;
+                    runStart = i;
+                }
+            }
+            addRun(runKey, id, runStart, trace.size());
+            return true;
+        });
+    }
+
+    private static double cellSize(final double min, final double max) {
+        return max > min ? (max - min) / CELLS : 1;
+    }
+
+    private static int cell(final double value, final double min, final double size) {
+        return (int) Math.max(0, Math.min(CELLS - 1, Math.floor((value - min) / size)));
+    }
+
+    private static int key(final int lat, final int lon, final int time) {
+        return (lat * CELLS + lon) * CELLS + time;
+    }
+
+    private void addRun(final int key, final int id, final int from, final int to) {
+        if (to > from) {
+            TIntList runs = cells.get(key);
+            if (runs == null) {
+                runs = new TIntArrayList();
+                cells.put(key, runs);
+            }
+            runs.add(id);
+            runs.add(from);
+            runs.add(to);
+        }
+    }
+
+    /**
+     * @param minLatitude
+     *            the minimum latitude
+     * @param minLongitude
+     *            the minimum longitude
+     * @param maxLatitude
+     *            the maximum latitude
+     * @param maxLongitude
+     *            the maximum longitude
+     * @param from
+     *            the beginning of the time window
+     * @param to
+     *            the end of the time window
+     * @return the maximal ranges of points within the box and the window,
+     *         sorted by node id and index
+     */
+    List<ITraceSampleRange> query(final double minLatitude, final double minLongitude, final double maxLatitude, final double maxLongitude, final double from, final double to) {
+        final List<ITraceSampleRange> found = new ArrayList<>();
+        if (cells.isEmpty() || minLatitude > maxLatitude || minLongitude > maxLongitude || from > to) {
+            return found;
+        }
+        final int lat0 = cell(minLatitude, minLat, latSize);
+        final int lat1 = cell(maxLatitude, minLat, latSize);
+        final int lon0 = cell(minLongitude, minLon, lonSize);
+        final int lon1 = cell(maxLongitude, minLon, lonSize);
+        final int time0 = cell(from, minTime, timeSize);
+        final int time1 = cell(to, minTime, timeSize);
+        final Box box = new Box(minLatitude, minLongitude, maxLatitude, maxLongitude, from, to);
+        final long queried = (long) (lat1 - lat0 + 1) * (lon1 - lon0 + 1) * (time1 - time0 + 1);
+        if (queried > cells.size()) {
+            /*
+             * Large queries: scanning the populated cells is cheaper.
+             */
+            cells.forEachEntry((key, runs) -> {
+                final int lat = key / (CELLS * CELLS);
+                final int lon = key / CELLS % CELLS;
+                final int time = key % CELLS;
+                if (lat >= lat0 && lat <= lat1 && lon >= lon0 && lon <= lon1 && time >= time0 && time <= time1) {
+                    scan(runs, box, found);
+                }
+                return true;
+            });
+        } else {
+            for (int lat = lat0; lat <= lat1; lat++) {
+                for (int lon = lon0; lon <= lon1; lon++) {
+                    for (int time = time0; time <= time1; time++) {
+                        final TIntList runs = cells.get(key(lat, lon, time));
+                        if (runs != null) {
+                            scan(runs, box, found);
+                        }
+                    }
+                }
+            }
+        }
+        return merge(found);
+    }
+
+    /*
+     * Points on the border of the box are checked one by one: runs are split
+     * where they leave the box.
+     */
+    private void scan(final TIntList runs, final Box box, final List<ITraceSampleRange> found) {
+        for (int r = 0; r < runs.size(); r += 3) {
+            final int id = runs.get(r);
+            final IGPSTrace trace = traces.get(id);
+            int start = -1;
+            final int end = runs.get(r + 2);
+            for (int i = runs.get(r + 1); i < end; i++) {
+                if (box.contains(trace, i)) {
+                    if (start < 0) {
+                        start = i;
+                    }
+                } else if (start >= 0) {
+                    found.add(new Range(id, start, i));
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                found.add(new Range(id, start, end));
+            }
+        }
+    }
+
+    /*
+     * Runs of the same trace falling in neighbouring cells are joined.
+     */
+    private static List<ITraceSampleRange> merge(final List<ITraceSampleRange> ranges) {
+        Collections.sort(ranges, Comparator.comparingInt(ITraceSampleRange::getNodeId).thenComparingInt(ITraceSampleRange::getFrom));
+        final List<ITraceSampleRange> result = new ArrayList<>(ranges.size());
+        for (final ITraceSampleRange range : ranges) {
+            final int last = result.size() - 1;
+            if (last >= 0 && result.get(last).getNodeId() == range.getNodeId() && result.get(last).getTo() == range.getFrom()) {
+                result.set(last, new Range(range.getNodeId(), result.get(last).getFrom(), range.getTo()));
+            } else {
+                result.add(range);
+            }
+        }
+        return result;
+    }
+
+    private static final class Box {
+        private final double minLatitude, minLongitude, maxLatitude, maxLongitude, from, to;
+
+        private Box(final double minLatitude, final double minLongitude, final double maxLatitude, final double maxLongitude, final double from, final double to) {
+            this.minLatitude = minLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLatitude = maxLatitude;
+            this.maxLongitude = maxLongitude;
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean contains(final IGPSTrace trace, final int index) {
+            final double lat = trace.getLatitude(index);
+            final double lon = trace.getLongitude(index);
+            final double time = trace.getTime(index);
+            return lat >= minLatitude && lat <= maxLatitude && lon >= minLongitude && lon <= maxLongitude && time >= from && time <= to;
+        }
+    }
+
+    private static final class Range implements ITraceSampleRange {
+        private final int id, from, to;
+
+        private Range(final int id, final int from, final int to) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int getNodeId() {
+            return id;
+        }
+
+        @Override
+        public int getFrom() {
+            return from;
+        }
+
+        @Override
+        public int getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return id + "[" + from + ", " + to + ")";
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations.environments;
+
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+
+/**
+ * Immutable index over the time intervals covered by a set of traces. Traces
+ * are sorted by start time, and laid out as an implicit balanced binary tree
+ * in which each node stores the latest end time of its subtree: a window
+ * query visits O(log n + k) entries. A second copy sorted by end time answers
+ * queries on the ending traces.
+ */
+final class TraceTimeIndex {
+
+    private final int[] ids;
+    private final double[] starts;
+    private final double[] ends;
+    private final double[] subtreeEnds;
+    private final int[] idsByEnd;
+    private final double[] sortedEnds;
+
+    /**
+     * @param traces
+     *            the traces to index, by node id. Empty traces are ignored.
+     */
+    TraceTimeIndex(final TIntObjectMap<IGPSTrace> traces) {
+        final int[] keys = Arrays.stream(traces.keys())
+                .filter(id -> traces.get(id).size() > 0)
+                .toArray();
+        final double[] allStarts = new double[keys.length];
+        final double[] allEnds = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            final IGPSTrace trace = traces.get(keys[i]);
+            allStarts[i] = trace.getTime(0);
+            allEnds[i] = trace.getTime(trace.size() - 1);
+        }
+        final int[] byStart = order(allStarts);
+        ids = new int[keys.length];
+        starts = new double[keys.length];
+        ends = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ids[i] = keys[byStart[i]];
+            starts[i] = allStarts[byStart[i]];
+            ends[i] = allEnds[byStart[i]];
+        }
+        subtreeEnds = new double[keys.length];
+        buildSubtreeEnds(0, keys.length);
+        final int[] byEnd = order(allEnds);
+        idsByEnd = new int[keys.length];
+        sortedEnds = new double[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            idsByEnd[i] = keys[byEnd[i]];
+            sortedEnds[i] = allEnds[byEnd[i]];
+        }
+    }
+
+    private static int[] order(final double[] values) {
+        return IntStream.range(0, values.length)
+                .boxed()
+                .sorted(Comparator.comparingDouble(i -> values[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private double buildSubtreeEnds(final int from, final int to) {
+        if (from >= to) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        final int mid = (from + to) >>> 1;
+        subtreeEnds[mid] = Math.max(ends[mid], Math.max(buildSubtreeEnds(from, mid), buildSubtreeEnds(mid + 1, to)));
+        return subtreeEnds[mid];
+    }
+
+    /**
+     * @param from
+     *            the beginning of the window
+     * @param to
+     *            the end of the window
+     * @return the ids of the nodes whose trace overlaps the window, sorted by
+     *         trace start time
+     */
+    int[] active(final double from, final double to) {
+        final TIntList result = new TIntArrayList();
+        active(0, ids.length, from, to, result);
+        return result.toArray();
+    }
+
+    private void active(final int low, final int high, final double from, final double to, final TIntList result) {
+        if (low >= high) {
+            return;
+        }
+        final int mid = (low + high) >>> 1;
+        if (subtreeEnds[mid] < from) {
+            return;
+        }
+        active(low, mid, from, to, result);
+        if (starts[mid] <= to) {
+            if (ends[mid] >= from) {
+                result.add(ids[mid]);
+            }
+            active(mid + 1, high, from, to, result);
+        }
+    }
+
+    /**
+     * @param from
+     *            the beginning of the window
+     * @param to
+     *            the end of the window
+     * @return the ids of the nodes whose trace starts within the window,
+     *         sorted by trace start time
+     */
+    int[] starting(final double from, final double to) {
+        return window(ids, starts, from, to);
+    }
+
+    /**
+     * @param from
+     *            the beginning of the window
+     * @param to
+     *            the end of the window
+     * @return the ids of the nodes whose trace ends within the window, sorted
+     *         by trace end time
+     */
+    int[] ending(final double from, final double to) {
+        return window(idsByEnd, sortedEnds, from, to);
+    }
+
+    private static int[] window(final int[] sortedIds, final double[] sorted, final double from, final double to) {
+        final int first = search(sorted, from, false);
+        return Arrays.copyOfRange(sortedIds, first, Math.max(first, search(sorted, to, true)));
+    }
+
+    /*
+     * Index of the first value greater than time, or not lower than time if
+     * inclusive is false.
+     */
+    private static int search(final double[] sorted, final double time, final boolean inclusive) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (inclusive ? sorted[mid] <= time : sorted[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
@@ -11,8 +11,9 @@ package it.unibo.alchemist.model.implementations.linkingrules;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
 import it.unibo.alchemist.model.implementations.neighborhoods.CachedNeighborhood;
 import it.unibo.alchemist.model.interfaces.Environment;
@@ -20,6 +21,7 @@ import it.unibo.alchemist.model.interfaces.LinkingRule;
 import it.unibo.alchemist.model.interfaces.IMapEnvironment;
 import it.unibo.alchemist.model.interfaces.Neighborhood;
 import it.unibo.alchemist.model.interfaces.Node;
+import it.unibo.alchemist.model.interfaces.Position;
 
 /**
  * @param <T>
@@ -41,8 +43,13 @@ public class LinkNodesWithinRoutingRange<T> implements LinkingRule<T> {
     public Neighborhood<T> computeNeighborhood(final Node<T> center, final Environment<T> env) {
         if (env instanceof IMapEnvironment<?>) {
             final IMapEnvironment<T> menv = (IMapEnvironment<T>) env;
-            final Stream<Node<T>> stream = menv.getNodesWithinRange(center, range).parallelStream();
-            final Collection<Node<T>> filtered = stream.filter(node -> menv.computeRoute(center, node).getDistance() < range).collect(Collectors.toList());
+            final List<Node<T>> candidates = new ArrayList<>(menv.getNodesWithinRange(center, range));
+            final List<Position> positions = candidates.stream().map(menv::getPosition).collect(Collectors.toList());
+            final double[] distances = menv.computeNetworkDistances(menv.getPosition(center), positions, range, IMapEnvironment.DEFAULT_VEHICLE);
+            final Collection<Node<T>> filtered = IntStream.range(0, distances.length)
+                    .filter(i -> distances[i] < range)
+                    .mapToObj(candidates::get)
+                    .collect(Collectors.toList());
             return new CachedNeighborhood<>(center, filtered, menv);
         }
         return new CachedNeighborhood<>(center, emptyList, env);
@@ -18,6 +18,10 @@ import static org.apache.commons.math3.util.FastMath.sqrt;
 import static org.apache.commons.math3.util.FastMath.toDegrees;
 import static org.apache.commons.math3.util.FastMath.toRadians;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.List;
 
 import org.danilopianini.lang.HashUtils;
@@ -27,13 +31,21 @@ import it.unibo.alchemist.model.interfaces.Position;
 
 import com.google.common.collect.Lists;
 import com.javadocmd.simplelatlng.LatLng;
+import com.javadocmd.simplelatlng.LatLngTool;
+import com.javadocmd.simplelatlng.util.LatLngConfig;
 import com.javadocmd.simplelatlng.util.LengthUnit;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
  * Unmodifiable state version of {@link LatLng}, also implementing the
- * {@link Position} interface.
+ * {@link Position} interface. Coordinates are normalized and rounded as
+ * {@link LatLng} does, and stored as primitive values. The trigonometric
+ * terms distance computations need are computed the first time a distance
+ * is measured, and kept by the position: computing further distances
+ * between two {@link LatLongPosition}s takes at most two trigonometric
+ * calls, and none with the equirectangular and flat earth formulas. The
+ * serialized form is the one of the versions wrapping a {@link LatLng}.
  * 
  */
 public final class LatLongPosition implements Position {
@@ -52,10 +64,35 @@ public final class LatLongPosition implements Position {
     private static final double MIN_LON = Math.toRadians(-180d); // -PI
 
     private static final long serialVersionUID = -8972065367390749356L;
+    private static final long POLE = LatLngConfig.doubleToLong(90);
+    private static final double UNITS_PER_DEGREE = 1e6;
+    private static final double HALF_UNIT = 0.5 / UNITS_PER_DEGREE;
+    /*
+     * The formulas which could be selected by index before FLAT_EARTH was
+     * added: indices keep their meaning.
+     */
+    private static final DistanceFormula[] INDEXED_FORMULAS = {
+        DistanceFormula.EQUIRECTANGULAR, DistanceFormula.HAVERSINE, DistanceFormula.SPHERICAL_COSINES,
+    };
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("df", DistanceFormula.class),
+        new ObjectStreamField("latlng", LatLng.class),
+        new ObjectStreamField("hash", int.class),
+    };
 
     private final DistanceFormula df;
-    private final LatLng latlng;
+    private final double latitude, longitude;
+    private final double latRad, lonRad;
+    /*
+     * Immutable, so that it can be computed by any thread and published
+     * through a plain field: at worst, it gets computed more than once.
+     */
+    private transient Terms terms;
     private int hash;
+    /*
+     * Only set while deserializing: see readResolve.
+     */
+    private transient LatLongPosition resolved;
 
     /**
      * Possible methods to compute the distance between two latitude-longitude
@@ -67,7 +104,23 @@ public final class LatLongPosition implements Position {
         /**
          * 
          */
-        EQUIRECTANGULAR, HAVERSINE, SPHERICAL_COSINES
+        EQUIRECTANGULAR, HAVERSINE, SPHERICAL_COSINES,
+
+        /**
+         * Pythagoras' theorem on the Earth locally flattened, scaling the
+         * difference in longitude by the mean of the cosines of the two
+         * latitudes. Such cosines are cached by {@link LatLongPosition}s, so
+         * no trigonometric function is computed. Meant for the short
+         * distances of a city: for points up to 10 km apart, within 70
+         * degrees of latitude from the equator, the relative error with
+         * respect to {@link #HAVERSINE} is below {@value #FLAT_EARTH_MAX_ERROR}.
+         */
+        FLAT_EARTH;
+
+        /**
+         * Maximum relative error of {@link #FLAT_EARTH} at city scale.
+         */
+        public static final double FLAT_EARTH_MAX_ERROR = 1e-5;
     }
 
     /**
@@ -142,6 +195,8 @@ public final class LatLongPosition implements Position {
             final double x = (lon2R - lon1R) * cos((lat1R + lat2R) / 2);
             final double y = lat2R - lat1R;
             return sqrt(x * x + y * y);
+        case FLAT_EARTH:
+            return flatDistance(lat2R - lat1R, lon2R - lon1R, (cos(lat1R) + cos(lat2R)) / 2);
         default:
             throw new IllegalStateException("Unknown algorithm required: " + precision);
         }
@@ -166,8 +221,38 @@ public final class LatLongPosition implements Position {
      *            the formula to use to compute distances
      */
     public LatLongPosition(final double lat, final double lon, final DistanceFormula distanceFormula) {
-        latlng = new LatLng(lat, lon);
+        this(roundLatitude(lat), roundLongitude(lat, lon), distanceFormula, 0);
+    }
+
+    private LatLongPosition(final long roundedLat, final long roundedLon, final DistanceFormula distanceFormula, final int hash) {
         df = distanceFormula;
+        latitude = LatLngConfig.longToDouble(roundedLat);
+        longitude = LatLngConfig.longToDouble(roundedLon);
+        latRad = toRadians(latitude);
+        lonRad = toRadians(longitude);
+        this.hash = hash;
+    }
+
+    /*
+     * Same normalization and rounding of LatLng.
+     */
+    private static long roundLatitude(final double lat) {
+        final double normalizedLat = LatLngTool.normalizeLatitude(lat);
+        if (Double.isNaN(normalizedLat)) {
+            throw new IllegalArgumentException("Invalid latitude given.");
+        }
+        return LatLngConfig.doubleToLong(normalizedLat);
+    }
+
+    private static long roundLongitude(final double lat, final double lon) {
+        if (Math.abs(roundLatitude(lat)) == POLE) {
+            return 0;
+        }
+        final double normalizedLon = LatLngTool.normalizeLongitude(lon);
+        if (Double.isNaN(normalizedLon)) {
+            throw new IllegalArgumentException("Invalid longitude given.");
+        }
+        return LatLngConfig.doubleToLong(normalizedLon);
     }
 
     /**
@@ -176,10 +261,15 @@ public final class LatLongPosition implements Position {
      * @param lon
      *            longitude
      * @param distanceFormula
-     *            the index of the formula to use to compute distances
+     *            the index of the formula to use to compute distances: 0 for
+     *            {@link DistanceFormula#EQUIRECTANGULAR}, 1 for
+     *            {@link DistanceFormula#HAVERSINE}, 2 for
+     *            {@link DistanceFormula#SPHERICAL_COSINES}, wrapping around.
+     *            {@link DistanceFormula#FLAT_EARTH} can only be passed by
+     *            value.
      */
     public LatLongPosition(final double lat, final double lon, final int distanceFormula) {
-        this(lat, lon, DistanceFormula.values()[distanceFormula % DistanceFormula.values().length]);
+        this(lat, lon, INDEXED_FORMULAS[distanceFormula % INDEXED_FORMULAS.length]);
     }
 
     /**
@@ -192,6 +282,20 @@ public final class LatLongPosition implements Position {
         this(lat.doubleValue(), lon.doubleValue());
     }
 
+    /*
+     * Copies coordinates and cached terms, which would otherwise be rounded
+     * and computed again.
+     */
+    private LatLongPosition(final LatLongPosition source, final DistanceFormula distanceFormula) {
+        df = distanceFormula;
+        latitude = source.latitude;
+        longitude = source.longitude;
+        latRad = source.latRad;
+        lonRad = source.lonRad;
+        terms = source.terms;
+        hash = source.hash;
+    }
+
     @Override
     public List<Position> buildBoundingBox(final double range) {
         if (range < 0d) {
@@ -239,13 +343,13 @@ public final class LatLongPosition implements Position {
         if (getDimensions() > o.getDimensions()) {
             return 1;
         }
-        final double[] pos = o.getCartesianCoordinates();
-        final double[] c = getCartesianCoordinates();
-        for (int i = 0; i < c.length; i++) {
-            if (c[i] < pos[i]) {
+        for (int i = 0; i < 2; i++) {
+            final double mine = getCoordinate(i);
+            final double other = o.getCoordinate(i);
+            if (mine < other) {
                 return -1;
             }
-            if (c[i] > pos[i]) {
+            if (mine > other) {
                 return 1;
             }
         }
@@ -272,14 +376,31 @@ public final class LatLongPosition implements Position {
      * @return the latitude
      */
     public double getLatitude() {
-        return latlng.getLatitude();
+        return latitude;
     }
 
     /**
      * @return the longitude
      */
     public double getLongitude() {
-        return latlng.getLongitude();
+        return longitude;
+    }
+
+    /**
+     * @return the formula used to compute distances
+     */
+    public DistanceFormula getDistanceFormula() {
+        return df;
+    }
+
+    /**
+     * @param distanceFormula
+     *            the formula to use to compute distances
+     * @return a {@link LatLongPosition} with the same coordinates of this
+     *         one, using the passed formula to compute distances
+     */
+    public LatLongPosition withDistanceFormula(final DistanceFormula distanceFormula) {
+        return distanceFormula == df ? this : new LatLongPosition(this, distanceFormula);
     }
 
     @Override
@@ -290,16 +411,69 @@ public final class LatLongPosition implements Position {
     @Override
     public double getDistanceTo(final Position p) {
         if (p instanceof LatLongPosition) {
-            return distance(latlng, ((LatLongPosition) p).latlng, df);
+            return distanceInRadians((LatLongPosition) p) * EARTH_MEAN_RADIUS_METERS;
+        }
+        if (p instanceof ProjectedPosition) {
+            return distanceInRadians(((ProjectedPosition) p).toLatLong()) * EARTH_MEAN_RADIUS_METERS;
         }
         final int pDims = p.getDimensions();
         if (pDims == 2) {
-            final double[] coords = p.getCartesianCoordinates();
-            return distance(latlng, new LatLng(coords[1], coords[0]), df);
+            return distanceInRadians(new LatLongPosition(p.getCoordinate(1), p.getCoordinate(0))) * EARTH_MEAN_RADIUS_METERS;
         }
         throw new UncomparableDistancesException(this, p);
     }
 
+    /*
+     * Same as distanceInRadians(LatLng, LatLng, DistanceFormula), reusing
+     * the cached terms. The cosine of the mean latitude is expanded as the
+     * cosine of a sum of half latitudes.
+     */
+    private double distanceInRadians(final LatLongPosition p) {
+        final Terms mine = terms();
+        final Terms other = p.terms();
+        switch (df) {
+        case HAVERSINE:
+            final double sinHalfDLat = sin(abs(p.latRad - latRad) / 2);
+            final double sinHalfDLon = sin(abs(p.lonRad - lonRad) / 2);
+            final double a = sinHalfDLat * sinHalfDLat + mine.cosLat * other.cosLat * sinHalfDLon * sinHalfDLon;
+            return 2 * atan2(sqrt(a), sqrt(1 - a));
+        case SPHERICAL_COSINES:
+            return acos(mine.sinLat * other.sinLat + mine.cosLat * other.cosLat * cos(abs(p.lonRad - lonRad)));
+        case EQUIRECTANGULAR:
+            final double x = (p.lonRad - lonRad) * (mine.cosHalfLat * other.cosHalfLat - mine.sinHalfLat * other.sinHalfLat);
+            final double y = p.latRad - latRad;
+            return sqrt(x * x + y * y);
+        case FLAT_EARTH:
+            return flatDistance(p.latRad - latRad, p.lonRad - lonRad, (mine.cosLat + other.cosLat) / 2);
+        default:
+            throw new IllegalStateException("Unknown algorithm required: " + df);
+        }
+    }
+
+    private Terms terms() {
+        Terms result = terms;
+        if (result == null) {
+            result = new Terms(latRad);
+            terms = result;
+        }
+        return result;
+    }
+
+    /*
+     * The difference in longitude is taken the short way around, so that
+     * points across the antimeridian are close.
+     */
+    private static double flatDistance(final double dLat, final double dLon, final double scale) {
+        double wrapped = dLon;
+        if (wrapped > Math.PI) {
+            wrapped -= 2 * Math.PI;
+        } else if (wrapped < -Math.PI) {
+            wrapped += 2 * Math.PI;
+        }
+        final double x = wrapped * scale;
+        return sqrt(x * x + dLat * dLat);
+    }
+
     @Override
     @SuppressFBWarnings(justification = "Exact floating point equality is required here.")
     public boolean equals(final Object obj) {
@@ -320,19 +494,69 @@ public final class LatLongPosition implements Position {
 
     @Override
     public String toString() {
-        return latlng.toString();
+        return String.format("(%s,%s)", LatLngConfig.getDegreeFormat().format(latitude), LatLngConfig.getDegreeFormat().format(longitude));
     }
 
     @Override
     public Position sum(final Position other) {
         if (other instanceof LatLongPosition) {
-            final LatLng l = ((LatLongPosition) other).latlng;
-            return new LatLongPosition(
-                    latlng.getLatitude() + l.getLatitude(),
-                    latlng.getLongitude() + l.getLongitude());
+            final LatLongPosition l = (LatLongPosition) other;
+            return new LatLongPosition(latitude + l.latitude, longitude + l.longitude);
         }
         throw new IllegalArgumentException(
                 "You are summing a " + getClass() + "with a " + other.getClass() + ". This is not supported.");
     }
 
+    /*
+     * LatLng truncates the coordinates it gets, so building one from the
+     * rounded values may lose a unit: they are nudged half a unit away from
+     * zero, unless this makes them wrap around.
+     */
+    private LatLng toLatLng() {
+        final long lat = Math.round(latitude * UNITS_PER_DEGREE);
+        final long lon = Math.round(longitude * UNITS_PER_DEGREE);
+        final LatLng nudged = new LatLng(latitude + Math.copySign(HALF_UNIT, latitude), longitude + Math.copySign(HALF_UNIT, longitude));
+        if (nudged.getLatitudeInternal() == lat && nudged.getLongitudeInternal() == lon) {
+            return nudged;
+        }
+        return new LatLng(latitude, longitude);
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("df", df);
+        fields.put("latlng", toLatLng());
+        fields.put("hash", hash);
+        out.writeFields();
+    }
+
+    /*
+     * Final fields can not be restored here: the position is rebuilt, and
+     * replaces this one in readResolve.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        final LatLng latlng = (LatLng) fields.get("latlng", null);
+        resolved = new LatLongPosition(latlng.getLatitudeInternal(), latlng.getLongitudeInternal(),
+                (DistanceFormula) fields.get("df", DEFAULT_DISTANCE_FORMULA), fields.get("hash", 0));
+    }
+
+    private Object readResolve() {
+        return resolved;
+    }
+
+    /*
+     * Trigonometric terms of the latitude.
+     */
+    private static final class Terms {
+        private final double sinLat, cosLat, sinHalfLat, cosHalfLat;
+
+        private Terms(final double latRad) {
+            sinHalfLat = sin(latRad / 2);
+            cosHalfLat = cos(latRad / 2);
+            sinLat = sin(latRad);
+            cosLat = cos(latRad);
+        }
+    }
+
 }
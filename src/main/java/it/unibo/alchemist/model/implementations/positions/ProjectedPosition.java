@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.implementations.positions;
+
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.utils.LocalProjection;
+
+import java.util.List;
+
+import org.danilopianini.lang.HashUtils;
+
+import com.google.common.collect.Lists;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Position on a {@link LocalProjection}: coordinates are east (0) and north
+ * (1) offsets in meters from the reference point of the projection, and
+ * distances are Euclidean.
+ */
+public final class ProjectedPosition implements Position {
+
+    private static final long serialVersionUID = -2377342150452532346L;
+    private final double x, y;
+    private final LocalProjection projection;
+    private int hash;
+
+    /**
+     * @param x
+     *            east coordinate, in meters
+     * @param y
+     *            north coordinate, in meters
+     * @param projection
+     *            the projection
+     */
+    public ProjectedPosition(final double x, final double y, final LocalProjection projection) {
+        this.x = x;
+        this.y = y;
+        this.projection = projection;
+    }
+
+    @Override
+    public List<Position> buildBoundingBox(final double range) {
+        if (range < 0d) {
+            throw new IllegalArgumentException("Negative ranges make no sense.");
+        }
+        return Lists.newArrayList(
+                new ProjectedPosition(x - range, y - range, projection),
+                new ProjectedPosition(x + range, y + range, projection));
+    }
+
+    @Override
+    public int compareTo(final Position o) {
+        if (getDimensions() != o.getDimensions()) {
+            return getDimensions() < o.getDimensions() ? -1 : 1;
+        }
+        final int byX = Double.compare(x, o.getCoordinate(0));
+        return byX == 0 ? Double.compare(y, o.getCoordinate(1)) : byX;
+    }
+
+    @Override
+    public double[] getCartesianCoordinates() {
+        return new double[] { x, y };
+    }
+
+    @Override
+    public double getCoordinate(final int dim) {
+        if (dim == 0) {
+            return x;
+        }
+        if (dim == 1) {
+            return y;
+        }
+        throw new IllegalArgumentException("Pass 0 for east and 1 for north. No other value accepted.");
+    }
+
+    @Override
+    public int getDimensions() {
+        return 2;
+    }
+
+    /**
+     * {@link LatLongPosition}s and positions on other projections are
+     * projected on this one before computing the distance.
+     */
+    @Override
+    public double getDistanceTo(final Position p) {
+        final ProjectedPosition pp = projection.project(p);
+        return Math.hypot(pp.x - x, pp.y - y);
+    }
+
+    /**
+     * @return the projection
+     */
+    public LocalProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @param other
+     *            the offset, whose coordinates are east and north meters
+     * @return a position moved by the offset
+     */
+    @Override
+    public Position sum(final Position other) {
+        return new ProjectedPosition(x + other.getCoordinate(0), y + other.getCoordinate(1), projection);
+    }
+
+    /**
+     * @return the latitude and longitude of this position
+     */
+    public LatLongPosition toLatLong() {
+        return projection.toLatLong(x, y);
+    }
+
+    /**
+     * @param target
+     *            the position to move towards
+     * @param distance
+     *            the distance to travel, in meters
+     * @return the position reached moving in straight line towards the
+     *         target. The target is never overtaken.
+     */
+    public ProjectedPosition towards(final Position target, final double distance) {
+        final ProjectedPosition pp = projection.project(target);
+        final double length = Math.hypot(pp.x - x, pp.y - y);
+        if (length <= distance) {
+            return pp;
+        }
+        final double ratio = distance / length;
+        return new ProjectedPosition(x + (pp.x - x) * ratio, y + (pp.y - y) * ratio, projection);
+    }
+
+    @Override
+    @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
+    public boolean equals(final Object obj) {
+        if (obj instanceof ProjectedPosition) {
+            final ProjectedPosition pp = (ProjectedPosition) obj;
+            return x == pp.x && y == pp.y && projection.equals(pp.projection);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        if (hash == 0) {
+            hash = HashUtils.hash32(x, y);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + x + "," + y + "]@" + projection;
+    }
+
+}
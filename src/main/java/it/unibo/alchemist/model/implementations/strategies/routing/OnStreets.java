@@ -1,5 +1,7 @@
 package it.unibo.alchemist.model.implementations.strategies.routing;
 
+import java.util.concurrent.CompletableFuture;
+
 import it.unibo.alchemist.model.interfaces.IMapEnvironment;
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.model.interfaces.IRoute;
@@ -34,4 +36,9 @@ public class OnStreets<T> implements RoutingStrategy<T> {
         return env.computeRoute(currentPos, finalPos, vehicle);
     }
 
+    @Override
+    public CompletableFuture<IRoute> computeRouteAsync(final Position currentPos, final Position finalPos) {
+        return env.computeRouteAsync(currentPos, finalPos, vehicle);
+    }
+
 }
@@ -3,7 +3,9 @@
  */
 package it.unibo.alchemist.model.implementations.strategies.speed;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.danilopianini.lang.LangUtils;
 
@@ -64,11 +66,15 @@ public class InteractWithOthers<T> implements SpeedSelectionStrategy<T> {
         double crowd = 0;
         final Collection<? extends Node<T>> neighs = env.getNodesWithinRange(node, rd);
         if (neighs.size() > 1 / in) {
+            final List<Node<T>> interactingNeighs = new ArrayList<>(neighs.size());
             for (final Node<T> neigh : neighs) {
                 if (neigh.contains(interacting)) {
-                    crowd += 1 / env.getDistanceBetweenNodes(node, neigh);
+                    interactingNeighs.add(neigh);
                 }
             }
+            for (final double distance : env.getDistances(node, interactingNeighs)) {
+                crowd += 1 / distance;
+            }
         }
         return Math.max(sp / (crowd * in + 1), MINIMUM_DISTANCE_WALKED);
     }
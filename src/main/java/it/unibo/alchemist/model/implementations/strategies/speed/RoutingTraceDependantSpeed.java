@@ -11,7 +11,9 @@ import it.unibo.alchemist.model.interfaces.Vehicle;
 
 /**
  * This {@link TraceDependantSpeed} strategy computes the remaining distance by
- * relying on maps data for a selected {@link Vehicle}.
+ * relying on maps data for a selected {@link Vehicle}. If the target can not
+ * be reached along the streets, e.g. because a GPS fix is far from any of
+ * them, the distance in straight line is used instead.
  * 
  * @param <T>
  */
@@ -37,7 +39,9 @@ public class RoutingTraceDependantSpeed<T> extends TraceDependantSpeed<T> {
 
     @Override
     protected double computeDistance(final IMapEnvironment<T> environment, final Node<T> curNode, final Position targetPosition) {
-        return environment.computeRoute(curNode, targetPosition, v).getDistance();
+        final Position position = environment.getPosition(curNode);
+        final double distance = environment.computeRouteDistance(position, targetPosition, v);
+        return Double.isNaN(distance) ? position.getDistanceTo(targetPosition) : distance;
     }
 
 }
@@ -1,7 +1,7 @@
 package it.unibo.alchemist.model.implementations.strategies.speed;
 
-import it.unibo.alchemist.model.interfaces.IGPSPoint;
 import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
 import it.unibo.alchemist.model.interfaces.IMapEnvironment;
 import it.unibo.alchemist.model.interfaces.Node;
 import it.unibo.alchemist.model.interfaces.Position;
@@ -20,6 +20,7 @@ public abstract class TraceDependantSpeed<T> implements SpeedSelectionStrategy<T
 
     private static final long serialVersionUID = 8021140539083062866L;
     private final IGPSTrace trace;
+    private transient IGPSTraceCursor cursor;
     private final Reaction<T> reaction;
     private final IMapEnvironment<T> env;
     private final Node<T> node;
@@ -43,8 +44,11 @@ public abstract class TraceDependantSpeed<T> implements SpeedSelectionStrategy<T
     @Override
     public final double getCurrentSpeed(final Position target) {
         final double curTime = reaction.getTau().toDouble();
-        final IGPSPoint next = trace.getNextPosition(curTime);
-        final double expArrival = next.getTime();
+        if (cursor == null) {
+            cursor = trace.cursor();
+        }
+        final int next = cursor.nextIndex(curTime);
+        final double expArrival = next < 0 ? Double.NaN : trace.getTime(next);
         final double frequency = reaction.getRate();
         final double steps = (expArrival - curTime) * frequency;
         return computeDistance(env, node, target) / steps;
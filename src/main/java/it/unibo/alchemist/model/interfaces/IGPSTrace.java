@@ -14,6 +14,11 @@ import java.io.Serializable;
  */
 public interface IGPSTrace extends Serializable {
 
+    /**
+     * @return a new {@link IGPSTraceCursor} on this trace
+     */
+    IGPSTraceCursor cursor();
+
     /**
      * @param time
      *            the time at which the new trace should start
@@ -27,6 +32,20 @@ public interface IGPSTrace extends Serializable {
      */
     int getId();
 
+    /**
+     * @param index
+     *            the index of the point
+     * @return the latitude of the index-th point
+     */
+    double getLatitude(int index);
+
+    /**
+     * @param index
+     *            the index of the point
+     * @return the longitude of the index-th point
+     */
+    double getLongitude(int index);
+
     /**
      * @param time
      *            the time
@@ -34,6 +53,13 @@ public interface IGPSTrace extends Serializable {
      */
     IGPSPoint getNextPosition(double time);
 
+    /**
+     * @param index
+     *            the index of the point
+     * @return the index-th point
+     */
+    IGPSPoint getPoint(int index);
+
     /**
      * @param time
      *            the time
@@ -46,6 +72,13 @@ public interface IGPSTrace extends Serializable {
      */
     double getStartTime();
 
+    /**
+     * @param index
+     *            the index of the point
+     * @return the time of the index-th point
+     */
+    double getTime(int index);
+
     /**
      * @param time
      *            the time
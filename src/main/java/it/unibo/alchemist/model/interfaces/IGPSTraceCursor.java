@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.interfaces;
+
+/**
+ * Looks up the points of an {@link IGPSTrace} by time, remembering the
+ * segment found by the last query. Queries with increasing times, as issued
+ * during a simulation, take constant amortized time and allocate nothing.
+ * Queries going back in time fall back to a binary search.
+ */
+public interface IGPSTraceCursor {
+
+    /**
+     * @return the trace this cursor moves on
+     */
+    IGPSTrace getTrace();
+
+    /**
+     * @param time
+     *            the time
+     * @return the index of the point preceding the passed time, or -1 if the
+     *         trace is empty
+     */
+    int previousIndex(double time);
+
+    /**
+     * @param time
+     *            the time
+     * @return the index of the point following the passed time, or -1 if the
+     *         trace is empty
+     */
+    int nextIndex(double time);
+
+    /**
+     * @param time
+     *            the time
+     * @return the next point, as {@link IGPSTrace#getNextPosition(double)}
+     */
+    IGPSPoint getNextPosition(double time);
+
+    /**
+     * @param time
+     *            the time
+     * @return the previous point, as
+     *         {@link IGPSTrace#getPreviousPosition(double)}
+     */
+    IGPSPoint getPreviousPosition(double time);
+
+    /**
+     * @param time
+     *            the time
+     * @return the interpolated point, as
+     *         {@link IGPSTrace#interpolate(double)}
+     */
+    IGPSPoint interpolate(double time);
+
+    /**
+     * Same as {@link #interpolate(double)}, but allocation free.
+     * 
+     * @param time
+     *            the time
+     * @param latLon
+     *            an array of at least two elements, where latitude and
+     *            longitude of the interpolated point are written, in this
+     *            order. If the trace is empty, both are NaN.
+     */
+    void interpolate(double time, double[] latLon);
+
+}
@@ -8,6 +8,12 @@
  */
 package it.unibo.alchemist.model.interfaces;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.tuple.Pair;
+
 /**
  * @param <T>
  */
@@ -50,7 +56,9 @@ public interface IMapEnvironment<T> extends Environment<T> {
      *            e.g. pedestrians can't go along a highway, but can walk the
      *            parks
      * @return A {@link IRoute} object describing the path the node should
-     *         follow
+     *         follow. If the positions can not be connected, e.g. because one
+     *         of them is too far from any street, the route has no points,
+     *         and {@link Double#NaN} length and time
      */
     IRoute computeRoute(Position p1, Position p2, final Vehicle vehicle);
 
@@ -103,6 +111,147 @@ public interface IMapEnvironment<T> extends Environment<T> {
      */
     IRoute computeRoute(Node<T> node, Position coord, Vehicle vehicle);
 
+    /**
+     * Computes only the length of the route connecting two positions. This is
+     * cheaper than computing the whole {@link IRoute}.
+     * 
+     * @param p1
+     *            start position
+     * @param p2
+     *            end position
+     * @param vehicle
+     *            vehicle to use
+     * @return the length (in meters) of the route connecting the two
+     *         positions, or {@link Double#NaN} if they can not be connected
+     */
+    double computeRouteDistance(Position p1, Position p2, Vehicle vehicle);
+
+    /**
+     * Computes only the time required to walk the route connecting two
+     * positions. This is cheaper than computing the whole {@link IRoute}.
+     * 
+     * @param p1
+     *            start position
+     * @param p2
+     *            end position
+     * @param vehicle
+     *            vehicle to use
+     * @return the time (in seconds) required to walk the route connecting the
+     *         two positions, or {@link Double#NaN} if they can not be
+     *         connected
+     */
+    double computeRouteTime(Position p1, Position p2, Vehicle vehicle);
+
+    /**
+     * Same as {@link #computeRoute(Position, Position, Vehicle)}, but the
+     * route is computed without blocking the caller.
+     * 
+     * @param p1
+     *            start position
+     * @param p2
+     *            end position
+     * @param vehicle
+     *            vehicle to use
+     * @return a {@link CompletableFuture} that completes with the
+     *         {@link IRoute} connecting the two positions
+     */
+    CompletableFuture<IRoute> computeRouteAsync(Position p1, Position p2, Vehicle vehicle);
+
+    /**
+     * Computes many routes at once, using the default {@link Vehicle}. Routes
+     * already known are not computed again, the others are computed in
+     * parallel.
+     * 
+     * @param endpoints
+     *            the start and end {@link Position}s of each route
+     * @return the {@link IRoute}s connecting each pair of endpoints, in the
+     *         same order as they were passed
+     */
+    List<IRoute> computeRoutes(Collection<? extends Pair<? extends Position, ? extends Position>> endpoints);
+
+    /**
+     * Computes many routes at once. Routes already known are not computed
+     * again, the others are computed in parallel.
+     * 
+     * @param endpoints
+     *            the start and end {@link Position}s of each route
+     * @param vehicle
+     *            vehicle to use. Different vehicles may use different paths,
+     *            e.g. pedestrians can't go along a highway, but can walk the
+     *            parks
+     * @return the {@link IRoute}s connecting each pair of endpoints, in the
+     *         same order as they were passed
+     */
+    List<IRoute> computeRoutes(Collection<? extends Pair<? extends Position, ? extends Position>> endpoints, Vehicle vehicle);
+
+    /**
+     * Computes the length of the shortest path along the streets from a
+     * single position to many others, with a single bounded search. Unlike
+     * {@link #computeRoute(Position, Position, Vehicle)}, which follows the
+     * fastest path, the path minimizing the length is picked. The straight
+     * lines connecting each position to its closest street are part of the
+     * path.
+     * 
+     * @param center
+     *            the start position
+     * @param targets
+     *            the destination positions
+     * @param maxDistance
+     *            the maximum distance (in meters) worth searching
+     * @param vehicle
+     *            the vehicle to use
+     * @return the network distances from the center to each target, in the
+     *         same order of the targets. Targets which can not be reached, or
+     *         whose distance exceeds maxDistance, have an infinite
+     *         distance
+     */
+    double[] computeNetworkDistances(Position center, List<? extends Position> targets, double maxDistance, Vehicle vehicle);
+
+    /**
+     * Computes the length of the shortest path along the streets from many
+     * positions to many others, with bounded searches from each origin. Paths
+     * are measured as in
+     * {@link #computeNetworkDistances(Position, List, double, Vehicle)}.
+     * 
+     * @param origins
+     *            the start positions
+     * @param targets
+     *            the destination positions
+     * @param maxDistance
+     *            the maximum distance (in meters) worth searching
+     * @param vehicle
+     *            the vehicle to use
+     * @return a matrix whose element [i][j] is the network distance from the
+     *         i-th origin to the j-th target. Targets which can not be
+     *         reached, or whose distance exceeds maxDistance, have an
+     *         infinite distance
+     */
+    double[][] computeNetworkDistances(List<? extends Position> origins, List<? extends Position> targets, double maxDistance, Vehicle vehicle);
+
+    /**
+     * Computes the straight line distances from a node to many others at
+     * once.
+     * 
+     * @param center
+     *            the node distances are measured from
+     * @param nodes
+     *            the other nodes
+     * @return the distances (in meters) from the center to each node, in the
+     *         same order of the nodes
+     */
+    double[] getDistances(Node<T> center, List<? extends Node<T>> nodes);
+
+    /**
+     * Notifies the environment of the current simulation time, which drives
+     * the expiration of the cached routes, if configured to expire with the
+     * simulation time. Times earlier than the latest one notified are
+     * ignored.
+     * 
+     * @param time
+     *            the current simulation time
+     */
+    void setSimulationTime(Time time);
+
     /**
      * Works only if the node is associated with a {@link IGPSTrace}.
      * 
@@ -136,4 +285,49 @@ public interface IMapEnvironment<T> extends Environment<T> {
      * @return the associated {@link IGPSTrace}
      */
     IGPSTrace getTrace(Node<T> node);
+
+    /**
+     * @param from
+     *            the beginning of the time window
+     * @param to
+     *            the end of the time window
+     * @return the ids of the nodes whose {@link IGPSTrace} has points both
+     *         not after to and not before from, sorted by trace start time
+     */
+    int[] getActiveTraces(double from, double to);
+
+    /**
+     * @param from
+     *            the beginning of the time window
+     * @param to
+     *            the end of the time window
+     * @return the ids of the nodes whose {@link IGPSTrace} starts within the
+     *         window, sorted by trace start time
+     */
+    int[] getStartingTraces(double from, double to);
+
+    /**
+     * @param from
+     *            the beginning of the time window
+     * @param to
+     *            the end of the time window
+     * @return the ids of the nodes whose {@link IGPSTrace} ends within the
+     *         window, sorted by trace end time
+     */
+    int[] getEndingTraces(double from, double to);
+
+    /**
+     * @param corner
+     *            a corner of the area
+     * @param opposite
+     *            the opposite corner of the area
+     * @param from
+     *            the beginning of the time window
+     * @param to
+     *            the end of the time window
+     * @return the maximal ranges of consecutive {@link IGPSTrace} points
+     *         within the area and the time window, sorted by node id and
+     *         index
+     */
+    List<ITraceSampleRange> getTraceSamples(Position corner, Position opposite, double from, double to);
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.model.interfaces;
+
+/**
+ * A range of consecutive points of the {@link IGPSTrace} associated with a
+ * node. Points can be read by index from the trace, without copying them.
+ */
+public interface ITraceSampleRange {
+
+    /**
+     * @return the id of the node whose trace contains the points
+     */
+    int getNodeId();
+
+    /**
+     * @return the index of the first point in the range
+     */
+    int getFrom();
+
+    /**
+     * @return the index following the last point in the range
+     */
+    int getTo();
+
+}
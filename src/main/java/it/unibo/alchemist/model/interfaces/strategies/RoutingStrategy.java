@@ -4,6 +4,7 @@
 package it.unibo.alchemist.model.interfaces.strategies;
 
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
 
 import it.unibo.alchemist.model.interfaces.Position;
 import it.unibo.alchemist.model.interfaces.IRoute;
@@ -25,4 +26,17 @@ public interface RoutingStrategy<T> extends Serializable {
      */
     IRoute computeRoute(Position currentPos, Position finalPos);
 
+    /**
+     * Computes a route between two positions without blocking the caller. By
+     * default, the route is computed immediately.
+     * 
+     * @param currentPos starting {@link Position}
+     * @param finalPos ending {@link Position}
+     * @return a {@link CompletableFuture} that completes with the {@link IRoute}
+     *         connecting the two points
+     */
+    default CompletableFuture<IRoute> computeRouteAsync(final Position currentPos, final Position finalPos) {
+        return CompletableFuture.completedFuture(computeRoute(currentPos, finalPos));
+    }
+
 }
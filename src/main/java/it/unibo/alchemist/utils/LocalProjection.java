@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.utils;
+
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.implementations.positions.ProjectedPosition;
+import it.unibo.alchemist.model.interfaces.Position;
+
+import java.io.Serializable;
+
+import org.danilopianini.lang.HashUtils;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Local tangent plane (east, north) projection of the spherical Earth, with
+ * origin in a reference point. Coordinates are in meters. The projection is
+ * orthographic: within 20 kilometers from the reference point, distances are
+ * scaled by less than 0.0005%.
+ */
+public final class LocalProjection implements Serializable {
+
+    private static final long serialVersionUID = 4473187442931569637L;
+    private static final double R = LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+    private final double latitude, longitude;
+    private final double sinLat, cosLat;
+
+    /**
+     * @param latitude
+     *            latitude of the reference point, in decimal degrees
+     * @param longitude
+     *            longitude of the reference point, in decimal degrees
+     */
+    public LocalProjection(final double latitude, final double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        sinLat = Math.sin(Math.toRadians(latitude));
+        cosLat = Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * @return latitude of the reference point, in decimal degrees
+     */
+    public double getReferenceLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return longitude of the reference point, in decimal degrees
+     */
+    public double getReferenceLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @param lat
+     *            latitude, in decimal degrees
+     * @param lon
+     *            longitude, in decimal degrees
+     * @param result
+     *            an array of at least two elements, where east and north
+     *            coordinates are written, in meters
+     * @return result
+     */
+    public double[] project(final double lat, final double lon, final double[] result) {
+        final double phi = Math.toRadians(lat);
+        final double dLon = Math.toRadians(lon - longitude);
+        final double cosPhi = Math.cos(phi);
+        result[0] = R * cosPhi * Math.sin(dLon);
+        result[1] = R * (cosLat * Math.sin(phi) - sinLat * cosPhi * Math.cos(dLon));
+        return result;
+    }
+
+    /**
+     * @param x
+     *            east coordinate, in meters
+     * @param y
+     *            north coordinate, in meters
+     * @param result
+     *            an array of at least two elements, where latitude and
+     *            longitude are written, in decimal degrees
+     * @return result
+     */
+    public double[] unproject(final double x, final double y, final double[] result) {
+        final double rho = Math.hypot(x, y);
+        if (rho == 0) {
+            result[0] = latitude;
+            result[1] = longitude;
+            return result;
+        }
+        final double c = Math.asin(Math.min(1, rho / R));
+        final double sinC = Math.sin(c);
+        final double cosC = Math.cos(c);
+        result[0] = Math.toDegrees(Math.asin(cosC * sinLat + y * sinC * cosLat / rho));
+        result[1] = longitude + Math.toDegrees(Math.atan2(x * sinC, rho * cosC * cosLat - y * sinC * sinLat));
+        return result;
+    }
+
+    /**
+     * @param p
+     *            the position. If it is not a {@link ProjectedPosition}, its
+     *            coordinates are longitude and latitude.
+     * @return the position on this projection
+     */
+    public ProjectedPosition project(final Position p) {
+        if (p instanceof ProjectedPosition) {
+            final ProjectedPosition pp = (ProjectedPosition) p;
+            if (equals(pp.getProjection())) {
+                return pp;
+            }
+            return project(pp.toLatLong());
+        }
+        final double[] xy = project(p.getCoordinate(1), p.getCoordinate(0), new double[2]);
+        return new ProjectedPosition(xy[0], xy[1], this);
+    }
+
+    /**
+     * @param x
+     *            east coordinate, in meters
+     * @param y
+     *            north coordinate, in meters
+     * @return the corresponding {@link LatLongPosition}
+     */
+    public LatLongPosition toLatLong(final double x, final double y) {
+        final double[] latLon = unproject(x, y, new double[2]);
+        return new LatLongPosition(latLon[0], latLon[1]);
+    }
+
+    /**
+     * @param p
+     *            the position
+     * @return p itself if it is not a {@link ProjectedPosition}, its latitude
+     *         and longitude otherwise
+     */
+    public static Position toLatLong(final Position p) {
+        return p instanceof ProjectedPosition ? ((ProjectedPosition) p).toLatLong() : p;
+    }
+
+    @Override
+    @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
+    public boolean equals(final Object obj) {
+        if (obj instanceof LocalProjection) {
+            final LocalProjection lp = (LocalProjection) obj;
+            return latitude == lp.latitude && longitude == lp.longitude;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashUtils.hash32(latitude, longitude);
+    }
+
+    @Override
+    public String toString() {
+        return "ENU@[" + latitude + "," + longitude + "]";
+    }
+
+}
@@ -12,13 +12,18 @@ import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
 import it.unibo.alchemist.model.interfaces.Position;
 
 import com.javadocmd.simplelatlng.LatLng;
-import com.javadocmd.simplelatlng.LatLngTool;
-import com.javadocmd.simplelatlng.util.LengthUnit;
 
 /**
+ * Geodesic computations on a spherical Earth. The methods working on
+ * latitudes and longitudes as primitive values allocate nothing, and write
+ * their results in arrays owned by the caller if they produce a point: the
+ * methods working on {@link Position}s delegate to them.
  */
 public final class MapUtils {
 
+    private static final double FULL_ANGLE = 360;
+    private static final double HALF_ANGLE = 180;
+
     private MapUtils() {
     }
 
@@ -36,7 +41,248 @@ public final class MapUtils {
      * @return the distance in meters
      */
     public static double getDistance(final double lat1, final double lon1, final double lat2, final double lon2) {
-        return LatLngTool.distance(new LatLng(lat1, lon1), new LatLng(lat2, lon2), LengthUnit.METER);
+        return getCentralAngle(lat1, lon1, lat2, lon2) * LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+    }
+
+    /**
+     * Returns the angle subtended at the center of the Earth by two points,
+     * computed with the haversine formula.
+     * 
+     * @param lat1
+     *            Latitude of first point, in decimal degrees.
+     * @param lon1
+     *            Longitude of first point, in decimal degrees.
+     * @param lat2
+     *            Latitude of second point, in decimal degrees.
+     * @param lon2
+     *            Longitude of second point, in decimal degrees.
+     * @return the central angle, in radians
+     */
+    public static double getCentralAngle(final double lat1, final double lon1, final double lat2, final double lon2) {
+        final double phi1 = Math.toRadians(lat1);
+        final double phi2 = Math.toRadians(lat2);
+        final double sinHalfDLat = Math.sin((phi2 - phi1) / 2);
+        final double sinHalfDLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        final double a = sinHalfDLat * sinHalfDLat + Math.cos(phi1) * Math.cos(phi2) * sinHalfDLon * sinHalfDLon;
+        return 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Computes the distances from a point to many others at once. The results
+     * are the same {@link #getDistance(double, double, double, double)}
+     * would return, but the terms depending on the first point only are
+     * computed once.
+     * 
+     * @param lat
+     *            Latitude of the point, in decimal degrees.
+     * @param lon
+     *            Longitude of the point, in decimal degrees.
+     * @param lats
+     *            Latitudes of the other points, in decimal degrees.
+     * @param lons
+     *            Longitudes of the other points, in decimal degrees. It must
+     *            be at least as long as lats.
+     * @param result
+     *            an array at least as long as lats, where the distance (in
+     *            meters) to the i-th point is written in the i-th element
+     * @return result
+     */
+    public static double[] getDistances(final double lat, final double lon, final double[] lats, final double[] lons, final double[] result) {
+        final double phi1 = Math.toRadians(lat);
+        final double cosPhi1 = Math.cos(phi1);
+        for (int i = 0; i < lats.length; i++) {
+            final double phi2 = Math.toRadians(lats[i]);
+            final double sinHalfDLat = Math.sin((phi2 - phi1) / 2);
+            final double sinHalfDLon = Math.sin(Math.toRadians(lons[i] - lon) / 2);
+            final double a = sinHalfDLat * sinHalfDLat + cosPhi1 * Math.cos(phi2) * sinHalfDLon * sinHalfDLon;
+            result[i] = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a)) * LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the distances from a point to many others at once, on the
+     * Earth locally flattened, with the same arithmetic of
+     * {@link it.unibo.alchemist.model.implementations.positions.LatLongPosition.DistanceFormula#FLAT_EARTH}:
+     * the difference in longitude is scaled by the mean of the cosines of the
+     * two latitudes, so a single trigonometric function is computed for each
+     * of the other points.
+     * 
+     * @param lat
+     *            Latitude of the point, in decimal degrees.
+     * @param lon
+     *            Longitude of the point, in decimal degrees.
+     * @param lats
+     *            Latitudes of the other points, in decimal degrees.
+     * @param lons
+     *            Longitudes of the other points, in decimal degrees. It must
+     *            be at least as long as lats.
+     * @param result
+     *            an array at least as long as lats, where the distance (in
+     *            meters) to the i-th point is written in the i-th element
+     * @return result
+     */
+    public static double[] getFlatDistances(final double lat, final double lon, final double[] lats, final double[] lons, final double[] result) {
+        final double phi1 = Math.toRadians(lat);
+        final double lambda1 = Math.toRadians(lon);
+        final double cosPhi1 = Math.cos(phi1);
+        for (int i = 0; i < lats.length; i++) {
+            final double phi2 = Math.toRadians(lats[i]);
+            final double dPhi = phi2 - phi1;
+            double dLambda = Math.toRadians(lons[i]) - lambda1;
+            if (dLambda > Math.PI) {
+                dLambda -= 2 * Math.PI;
+            } else if (dLambda < -Math.PI) {
+                dLambda += 2 * Math.PI;
+            }
+            final double x = dLambda * ((cosPhi1 + Math.cos(phi2)) / 2);
+            result[i] = Math.sqrt(x * x + dPhi * dPhi) * LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the points within some distance from a given one. The haversine
+     * term of each point is compared against the one of the range, so no
+     * inverse trigonometric function gets computed. Up to rounding, the
+     * points found are those whose
+     * {@link #getDistance(double, double, double, double)} from the given
+     * one is not greater than range.
+     * 
+     * @param lat
+     *            Latitude of the point, in decimal degrees.
+     * @param lon
+     *            Longitude of the point, in decimal degrees.
+     * @param lats
+     *            Latitudes of the other points, in decimal degrees.
+     * @param lons
+     *            Longitudes of the other points, in decimal degrees. It must
+     *            be at least as long as lats.
+     * @param range
+     *            the range, in meters
+     * @param result
+     *            an array at least as long as lats, where the indices of the
+     *            points within range are written, in increasing order
+     * @return the number of points within range, namely the number of
+     *         meaningful elements of result
+     */
+    public static int getIndicesWithinRange(final double lat, final double lon, final double[] lats, final double[] lons, final double range, final int[] result) {
+        final double angle = range / LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+        final double sinHalfAngle = Math.sin(Math.min(angle, Math.PI) / 2);
+        final double threshold = sinHalfAngle * sinHalfAngle;
+        final double phi1 = Math.toRadians(lat);
+        final double cosPhi1 = Math.cos(phi1);
+        int count = 0;
+        for (int i = 0; i < lats.length; i++) {
+            final double phi2 = Math.toRadians(lats[i]);
+            final double sinHalfDLat = Math.sin((phi2 - phi1) / 2);
+            final double sinHalfDLon = Math.sin(Math.toRadians(lons[i] - lon) / 2);
+            final double a = sinHalfDLat * sinHalfDLat + cosPhi1 * Math.cos(phi2) * sinHalfDLon * sinHalfDLon;
+            if (a <= threshold) {
+                result[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param lat1
+     *            Latitude of first point, in decimal degrees.
+     * @param lon1
+     *            Longitude of first point, in decimal degrees.
+     * @param lat2
+     *            Latitude of second point, in decimal degrees.
+     * @param lon2
+     *            Longitude of second point, in decimal degrees.
+     * @return the initial bearing of the great circle from the first to the
+     *         second point, in radians
+     */
+    public static double getInitialBearingInRadians(final double lat1, final double lon1, final double lat2, final double lon2) {
+        final double phi1 = Math.toRadians(lat1);
+        final double phi2 = Math.toRadians(lat2);
+        final double dLon = Math.toRadians(lon2 - lon1);
+        final double cosPhi2 = Math.cos(phi2);
+        return Math.atan2(Math.sin(dLon) * cosPhi2, Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(dLon));
+    }
+
+    /**
+     * @param lat1
+     *            Latitude of first point, in decimal degrees.
+     * @param lon1
+     *            Longitude of first point, in decimal degrees.
+     * @param lat2
+     *            Latitude of second point, in decimal degrees.
+     * @param lon2
+     *            Longitude of second point, in decimal degrees.
+     * @return the initial bearing of the great circle from the first to the
+     *         second point, in decimal degrees within [0, 360)
+     */
+    public static double getInitialBearing(final double lat1, final double lon1, final double lat2, final double lon2) {
+        final double bearing = Math.toDegrees(getInitialBearingInRadians(lat1, lon1, lat2, lon2)) % FULL_ANGLE;
+        return bearing < 0 ? bearing + FULL_ANGLE : bearing;
+    }
+
+    /**
+     * Moves along a great circle.
+     * 
+     * @param lat
+     *            Latitude of the start, in decimal degrees.
+     * @param lon
+     *            Longitude of the start, in decimal degrees.
+     * @param bearing
+     *            the initial bearing, in decimal degrees
+     * @param dist
+     *            the distance to travel, in meters
+     * @param result
+     *            an array of at least two elements, where latitude and
+     *            longitude of the destination are written, in decimal degrees
+     * @return result
+     */
+    public static double[] travel(final double lat, final double lon, final double bearing, final double dist, final double[] result) {
+        final double phi = Math.toRadians(lat);
+        final double theta = Math.toRadians(bearing);
+        final double angle = dist / LatLongPosition.EARTH_MEAN_RADIUS_METERS;
+        final double sinAngleCosPhi = Math.sin(angle) * Math.cos(phi);
+        final double phi2 = Math.asin(Math.sin(phi) * Math.cos(angle) + sinAngleCosPhi * Math.cos(theta));
+        final double dLon = Math.atan2(Math.sin(theta) * sinAngleCosPhi, Math.cos(angle) - Math.sin(phi) * Math.sin(phi2));
+        result[0] = Math.toDegrees(phi2);
+        result[1] = normalizeLongitude(Math.toDegrees(Math.toRadians(lon) + dLon));
+        return result;
+    }
+
+    /**
+     * Moves along the great circle connecting two points.
+     * 
+     * @param lat1
+     *            Latitude of the start, in decimal degrees.
+     * @param lon1
+     *            Longitude of the start, in decimal degrees.
+     * @param lat2
+     *            Latitude of the point to move towards, in decimal degrees.
+     * @param lon2
+     *            Longitude of the point to move towards, in decimal degrees.
+     * @param dist
+     *            the distance to travel, in meters
+     * @param result
+     *            an array of at least two elements, where latitude and
+     *            longitude of the destination are written, in decimal degrees
+     * @return result
+     */
+    public static double[] travel(final double lat1, final double lon1, final double lat2, final double lon2, final double dist, final double[] result) {
+        return travel(lat1, lon1, getInitialBearing(lat1, lon1, lat2, lon2), dist, result);
+    }
+
+    /**
+     * @param lon
+     *            a longitude, in decimal degrees
+     * @return the same longitude, within [-180, 180]
+     */
+    public static double normalizeLongitude(final double lon) {
+        if (lon >= -HALF_ANGLE && lon <= HALF_ANGLE) {
+            return lon;
+        }
+        final double normalized = (lon + HALF_ANGLE) % FULL_ANGLE;
+        return (normalized < 0 ? normalized + FULL_ANGLE : normalized) - HALF_ANGLE;
     }
 
     /**
@@ -49,7 +295,7 @@ public final class MapUtils {
      * @return the distance in meters
      */
     public static double getDistance(final Position p1, final Position p2) {
-        return LatLngTool.distance(toLatLng(p1), toLatLng(p2), LengthUnit.METER);
+        return getDistance(p1.getCoordinate(1), p1.getCoordinate(0), p2.getCoordinate(1), p2.getCoordinate(0));
     }
 
     /**
@@ -60,7 +306,7 @@ public final class MapUtils {
      * @return the initial bearing
      */
     public static double initialBearing(final Position start, final Position end) {
-        return LatLngTool.initialBearing(toLatLng(start), toLatLng(end));
+        return getInitialBearing(start.getCoordinate(1), start.getCoordinate(0), end.getCoordinate(1), end.getCoordinate(0));
     }
 
     /**
@@ -73,7 +319,8 @@ public final class MapUtils {
      * @return the actual destination
      */
     public static LatLongPosition getDestinationLocation(final Position start, final double initialBearing, final double dist) {
-        return toLatLong(LatLngTool.travel(toLatLng(start), initialBearing, dist, LengthUnit.METER));
+        final double[] destination = travel(start.getCoordinate(1), start.getCoordinate(0), initialBearing, dist, new double[2]);
+        return new LatLongPosition(destination[0], destination[1]);
     }
 
     /**
@@ -98,8 +345,7 @@ public final class MapUtils {
      * @return a {@link LatLng}
      */
     public static LatLng toLatLng(final Position p) {
-        final double[] pa = p.getCartesianCoordinates();
-        return new LatLng(pa[1], pa[0]);
+        return new LatLng(p.getCoordinate(1), p.getCoordinate(0));
     }
 
     /**
@@ -136,7 +382,7 @@ public final class MapUtils {
      * @return a new {@link LatLongPosition}
      */
     public static LatLongPosition toLatLong(final double x, final double y) {
-        return toLatLong(toLatLng(x, y));
+        return new LatLongPosition(y, x);
     }
 
 }
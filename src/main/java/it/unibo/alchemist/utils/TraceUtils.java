@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010-2015, Danilo Pianini and contributors
+ * listed in the project's pom.xml file.
+ * 
+ * This file is part of Alchemist, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE in the Alchemist distribution's top directory.
+ */
+package it.unibo.alchemist.utils;
+
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Utilities to process {@link IGPSTrace}s.
+ */
+public final class TraceUtils {
+
+    private TraceUtils() {
+    }
+
+    /**
+     * Simplifies a trace with the spatio-temporal variant of the
+     * Douglas-Peucker algorithm. A point is dropped if, at some time no
+     * farther than maxTimeError from its own, the simplified trace is no
+     * farther than maxDistance from it. With a maxTimeError of zero, the
+     * position interpolated on the simplified trace at any time is within
+     * maxDistance from the one interpolated on the original trace. Distances
+     * are computed on a local flat approximation of the Earth, whose error is
+     * negligible for segments shorter than a few kilometers, and smaller than
+     * the resolution of interpolated positions (about ten centimeters).
+     * 
+     * @param trace
+     *            the trace to simplify. Must be sorted by time.
+     * @param maxDistance
+     *            the maximum spatial error, in meters
+     * @param maxTimeError
+     *            the maximum time error
+     * @return a new, simplified trace, with the same id
+     */
+    public static ColumnarGPSTrace simplify(final IGPSTrace trace, final double maxDistance, final double maxTimeError) {
+        final int size = trace.size();
+        final boolean[] keep = new boolean[size];
+        int kept = 0;
+        if (size > 0) {
+            keep[0] = true;
+            keep[size - 1] = true;
+            kept = size == 1 ? 1 : 2;
+        }
+        final Deque<int[]> pending = new ArrayDeque<>();
+        if (size > 2) {
+            pending.push(new int[] { 0, size - 1 });
+        }
+        while (!pending.isEmpty()) {
+            final int[] range = pending.pop();
+            final int first = range[0];
+            final int last = range[1];
+            double worst = maxDistance;
+            int split = -1;
+            for (int i = first + 1; i < last; i++) {
+                final double error = error(trace, first, last, i, maxTimeError);
+                if (error > worst) {
+                    worst = error;
+                    split = i;
+                }
+            }
+            if (split >= 0) {
+                keep[split] = true;
+                kept++;
+                if (split - first > 1) {
+                    pending.push(new int[] { first, split });
+                }
+                if (last - split > 1) {
+                    pending.push(new int[] { split, last });
+                }
+            }
+        }
+        final double[] latitudes = new double[kept];
+        final double[] longitudes = new double[kept];
+        final double[] times = new double[kept];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (keep[i]) {
+                latitudes[j] = trace.getLatitude(i);
+                longitudes[j] = trace.getLongitude(i);
+                times[j] = trace.getTime(i);
+                j++;
+            }
+        }
+        return new ColumnarGPSTrace(trace.getId(), latitudes, longitudes, times);
+    }
+
+    /*
+     * Distance between the point and the stretch of the segment traveled
+     * within the time window around the point time. Longitudes are measured
+     * from the first point, the short way round the antimeridian.
+     */
+    private static double error(final IGPSTrace trace, final int first, final int last, final int point, final double maxTimeError) {
+        final double lat0 = trace.getLatitude(first);
+        final double lon0 = trace.getLongitude(first);
+        final double latScale = Math.toRadians(LatLongPosition.EARTH_MEAN_RADIUS_METERS);
+        final double lonScale = Math.cos(Math.toRadians(lat0)) * latScale;
+        final double bx = MapUtils.normalizeLongitude(trace.getLongitude(last) - lon0) * lonScale;
+        final double by = (trace.getLatitude(last) - lat0) * latScale;
+        final double px = MapUtils.normalizeLongitude(trace.getLongitude(point) - lon0) * lonScale;
+        final double py = (trace.getLatitude(point) - lat0) * latScale;
+        final double t0 = trace.getTime(first);
+        final double duration = trace.getTime(last) - t0;
+        double fraction = 0;
+        if (duration > 0) {
+            final double time = trace.getTime(point);
+            final double from = Math.max(0, (time - maxTimeError - t0) / duration);
+            final double to = Math.min(1, (time + maxTimeError - t0) / duration);
+            final double squaredLength = bx * bx + by * by;
+            final double closest = squaredLength == 0 ? from : (px * bx + py * by) / squaredLength;
+            fraction = Math.max(from, Math.min(to, closest));
+        }
+        return Math.hypot(px - bx * fraction, py - by * fraction);
+    }
+
+}
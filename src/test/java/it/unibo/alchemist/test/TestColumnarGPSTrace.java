@@ -0,0 +1,50 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.utils.MapUtils;
+
+/**
+ */
+public class TestColumnarGPSTrace {
+
+    private static final int POINTS = 1000;
+    /*
+     * Some far from the equator and close to the antimeridian, where absolute
+     * coordinates in single precision are the coarsest
+     */
+    private static final double[][] ORIGINS = { { 44.14, 12.24 }, { -16.5, 179.5 }, { 78.2, 15.6 }, { -45.9, -170.5 } };
+    private static final double SPAN = 1;
+    private static final double MAX_ERROR = 0.01;
+
+    /**
+     * 
+     */
+    @Test
+    public void testSinglePrecision() {
+        final Random rnd = new Random(0);
+        for (final double[] origin : ORIGINS) {
+            final double[] latitudes = new double[POINTS];
+            final double[] longitudes = new double[POINTS];
+            final double[] times = new double[POINTS];
+            for (int i = 0; i < POINTS; i++) {
+                latitudes[i] = origin[0] + (rnd.nextDouble() - 0.5) * SPAN;
+                longitudes[i] = origin[1] + (rnd.nextDouble() - 0.5) * SPAN;
+                times[i] = i;
+            }
+            final ColumnarGPSTrace trace = new ColumnarGPSTrace(0, latitudes, longitudes, times, true);
+            assertEquals(POINTS, trace.size());
+            for (int i = 0; i < POINTS; i++) {
+                final double error = MapUtils.getDistance(latitudes[i], longitudes[i], trace.getLatitude(i), trace.getLongitude(i));
+                assertTrue(error + " meters at " + latitudes[i] + ", " + longitudes[i], error <= MAX_ERROR);
+            }
+        }
+    }
+
+}
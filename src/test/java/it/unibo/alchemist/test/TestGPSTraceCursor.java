@@ -0,0 +1,119 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import at.jku.traces.json.GPSPoint;
+import at.jku.traces.json.UserTrace;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSPoint;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTraceCursor;
+import it.unibo.alchemist.utils.MapUtils;
+
+/**
+ */
+public class TestGPSTraceCursor {
+
+    private static final int[] SIZES = { 1, 2, 3, 4, 10, 100, 1000 };
+    private static final int QUERIES = 2000;
+    /*
+     * Around Cesena
+     */
+    private static final double LATITUDE = 44.14;
+    private static final double LONGITUDE = 12.24;
+    private static final double SPREAD = 0.05;
+    private static final double MAX_STEP = 60;
+    /*
+     * The baseline builds LatLongPositions, whose coordinates are truncated
+     * to the microdegree both before and after interpolating: the allocation
+     * free interpolation is more precise
+     */
+    private static final double TOLERANCE_METERS = 0.5;
+
+    private static UserTrace randomTrace(final Random rnd, final int size) {
+        final GPSPoint[] points = new GPSPoint[size];
+        double time = rnd.nextDouble() * MAX_STEP;
+        for (int i = 0; i < size; i++) {
+            points[i] = new GPSPoint(LATITUDE + (rnd.nextDouble() - 0.5) * SPREAD, LONGITUDE + (rnd.nextDouble() - 0.5) * SPREAD, time);
+            time += rnd.nextDouble() * MAX_STEP;
+        }
+        return new UserTrace(0, points);
+    }
+
+    /*
+     * Mostly increasing, as during a simulation, with some jumps backwards
+     * and some queries on the very time of a point or out of the trace
+     */
+    private static double nextTime(final Random rnd, final IGPSTrace trace, final double previous) {
+        final double start = trace.getTime(0);
+        final double end = trace.getTime(trace.size() - 1);
+        final int kind = rnd.nextInt(10);
+        if (kind == 0) {
+            return start + (end - start + 2 * MAX_STEP) * rnd.nextDouble() - MAX_STEP;
+        }
+        if (kind == 1) {
+            return trace.getTime(rnd.nextInt(trace.size()));
+        }
+        return previous + rnd.nextDouble() * MAX_STEP / 4;
+    }
+
+    private static void assertSamePoint(final IGPSPoint expected, final IGPSPoint actual) {
+        assertEquals(expected.getLatitude(), actual.getLatitude(), 0d);
+        assertEquals(expected.getLongitude(), actual.getLongitude(), 0d);
+        assertEquals(expected.getTime(), actual.getTime(), 0d);
+    }
+
+    private static void checkCursor(final Random rnd, final UserTrace baseline, final IGPSTraceCursor cursor) {
+        final double[] latLon = new double[2];
+        double time = baseline.getTime(0) - MAX_STEP;
+        for (int q = 0; q < QUERIES; q++) {
+            time = nextTime(rnd, baseline, time);
+            assertSamePoint(baseline.getPreviousPosition(time), cursor.getPreviousPosition(time));
+            assertSamePoint(baseline.getNextPosition(time), cursor.getNextPosition(time));
+            final IGPSPoint expected = baseline.interpolate(time);
+            assertSamePoint(expected, cursor.interpolate(time));
+            cursor.interpolate(time, latLon);
+            final double error = MapUtils.getDistance(expected.getLatitude(), expected.getLongitude(), latLon[0], latLon[1]);
+            assertTrue("At time " + time + " " + latLon[0] + ", " + latLon[1] + " instead of " + expected,
+                    error <= TOLERANCE_METERS);
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testAgainstBaseline() {
+        final Random rnd = new Random(0);
+        for (final int size : SIZES) {
+            final UserTrace baseline = randomTrace(rnd, size);
+            checkCursor(rnd, baseline, baseline.cursor());
+            checkCursor(rnd, baseline, ColumnarGPSTrace.copyOf(baseline, false).cursor());
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testAntimeridian() {
+        final UserTrace trace = new UserTrace(0, new GPSPoint[] {
+            new GPSPoint(-16, 179.9, 0),
+            new GPSPoint(-16.1, -179.9, 1),
+            new GPSPoint(-16.2, 179.8, 2),
+        });
+        final IGPSTraceCursor cursor = trace.cursor();
+        final double[] latLon = new double[2];
+        for (double time = 0; time <= 2; time += 0.01) {
+            cursor.interpolate(time, latLon);
+            assertTrue(latLon[1] + " at time " + time, latLon[1] >= -180 && latLon[1] <= 180);
+            assertTrue(Math.abs(latLon[1]) >= 179.8);
+        }
+    }
+
+}
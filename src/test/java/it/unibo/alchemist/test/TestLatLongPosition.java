@@ -1,6 +1,9 @@
 package it.unibo.alchemist.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -9,6 +12,7 @@ import com.javadocmd.simplelatlng.util.LengthUnit;
 
 import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
 import it.unibo.alchemist.model.implementations.positions.LatLongPosition.DistanceFormula;
+import it.unibo.alchemist.utils.MapUtils;
 
 /**
  *
@@ -17,6 +21,14 @@ public class TestLatLongPosition {
 
     private static final LatLng NORTH_CAPE = new LatLng(71.1725, 25.784444);
     private static final LatLng INVERCAGILL = new LatLng(-46.412652, 168.368963);
+    private static final int CITY_SAMPLES = 10000;
+    private static final double CITY_MAX_LATITUDE = 70;
+    private static final double CITY_MAX_DISTANCE_LOG10 = 4;
+    /*
+     * Positions convert degrees with FastMath, MapUtils with Math: results
+     * only differ in rounding, about a nanometer
+     */
+    private static final double FLAT_DISTANCES_TOLERANCE = 1e-6;
 
     /**
      * 
@@ -33,4 +45,68 @@ public class TestLatLongPosition {
         }
     }
 
+    /**
+     * 
+     */
+    @Test
+    public void testFlatEarthError() {
+        final Random rnd = new Random(0);
+        final double[] destination = new double[2];
+        for (int i = 0; i < CITY_SAMPLES; i++) {
+            final double lat = (2 * rnd.nextDouble() - 1) * CITY_MAX_LATITUDE;
+            final double lon = (2 * rnd.nextDouble() - 1) * 180;
+            final double distance = Math.pow(10, rnd.nextDouble() * CITY_MAX_DISTANCE_LOG10);
+            MapUtils.travel(lat, lon, rnd.nextDouble() * 360, distance, destination);
+            final LatLongPosition start = new LatLongPosition(lat, lon, DistanceFormula.FLAT_EARTH);
+            final LatLongPosition end = new LatLongPosition(destination[0], destination[1], DistanceFormula.HAVERSINE);
+            final double expected = end.getDistanceTo(start);
+            final double flat = start.getDistanceTo(end);
+            final double flatLatLng = LatLongPosition.distance(new LatLng(lat, lon), new LatLng(destination[0], destination[1]), DistanceFormula.FLAT_EARTH);
+            assertTrue(start + " to " + end + ": " + flat + " instead of " + expected,
+                    Math.abs(flat - expected) <= expected * DistanceFormula.FLAT_EARTH_MAX_ERROR);
+            assertTrue(start + " to " + end + ": " + flatLatLng + " instead of " + expected,
+                    Math.abs(flatLatLng - expected) <= expected * DistanceFormula.FLAT_EARTH_MAX_ERROR);
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testFlatDistances() {
+        final Random rnd = new Random(1);
+        final double[] lats = new double[CITY_SAMPLES];
+        final double[] lons = new double[CITY_SAMPLES];
+        final double[] result = new double[CITY_SAMPLES];
+        final LatLongPosition[] points = new LatLongPosition[CITY_SAMPLES];
+        final double[] destination = new double[2];
+        /*
+         * Close to the antimeridian, to check the wrapping as well
+         */
+        final double lat = (2 * rnd.nextDouble() - 1) * CITY_MAX_LATITUDE;
+        final double lon = 180 - rnd.nextDouble() / 100;
+        final LatLongPosition center = new LatLongPosition(lat, lon, DistanceFormula.FLAT_EARTH);
+        for (int i = 0; i < CITY_SAMPLES; i++) {
+            MapUtils.travel(lat, lon, rnd.nextDouble() * 360, Math.pow(10, rnd.nextDouble() * CITY_MAX_DISTANCE_LOG10), destination);
+            points[i] = new LatLongPosition(destination[0], destination[1]);
+            lats[i] = points[i].getLatitude();
+            lons[i] = points[i].getLongitude();
+        }
+        MapUtils.getFlatDistances(center.getLatitude(), center.getLongitude(), lats, lons, result);
+        for (int i = 0; i < CITY_SAMPLES; i++) {
+            assertEquals(center.getDistanceTo(points[i]), result[i], FLAT_DISTANCES_TOLERANCE);
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testIndexedFormulas() {
+        final DistanceFormula[] expected = { DistanceFormula.EQUIRECTANGULAR, DistanceFormula.HAVERSINE, DistanceFormula.SPHERICAL_COSINES };
+        for (int i = 0; i < 2 * expected.length; i++) {
+            assertEquals(expected[i % expected.length], new LatLongPosition(NORTH_CAPE.getLatitude(), NORTH_CAPE.getLongitude(), i).getDistanceFormula());
+        }
+    }
+
 }
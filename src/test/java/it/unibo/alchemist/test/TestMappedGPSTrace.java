@@ -0,0 +1,177 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import at.jku.traces.json.GPSPoint;
+import at.jku.traces.json.UserTrace;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.implementations.MappedGPSTrace;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+
+/**
+ */
+public class TestMappedGPSTrace {
+
+    private static final int TRACES = 20;
+    private static final int MAX_POINTS = 200;
+    private static final int SAMPLE_SIZE = 3 * Double.BYTES;
+    /*
+     * Small enough to split the test file in many mappings
+     */
+    private static final int MAX_MAPPING = MAX_POINTS * SAMPLE_SIZE;
+    private static final double FILTER_TIME = 50;
+
+    private static List<IGPSTrace> randomTraces(final Random rnd) {
+        final List<IGPSTrace> traces = new ArrayList<>(TRACES);
+        for (int id = 0; id < TRACES; id++) {
+            final int size = rnd.nextInt(MAX_POINTS + 1);
+            final double[] latitudes = new double[size];
+            final double[] longitudes = new double[size];
+            final double[] times = new double[size];
+            for (int i = 0; i < size; i++) {
+                latitudes[i] = 180 * rnd.nextDouble() - 90;
+                longitudes[i] = 360 * rnd.nextDouble() - 180;
+                times[i] = i + rnd.nextDouble();
+            }
+            traces.add(new ColumnarGPSTrace(id * 2 + 1, latitudes, longitudes, times));
+        }
+        /*
+         * Unsorted traces are sorted while being written
+         */
+        final List<GPSPoint> points = new ArrayList<>();
+        for (int i = MAX_POINTS; i > 0; i--) {
+            points.add(new GPSPoint(rnd.nextDouble(), rnd.nextDouble(), i));
+        }
+        traces.add(new UserTrace(0, points));
+        return traces;
+    }
+
+    /*
+     * Mapped files can not be deleted on some platforms until the mapping is
+     * garbage collected
+     */
+    private static File write(final List<IGPSTrace> traces) throws IOException {
+        final File file = File.createTempFile("traces", ".bin");
+        file.deleteOnExit();
+        try (MappedGPSTrace.Writer writer = new MappedGPSTrace.Writer(file)) {
+            for (final IGPSTrace trace : traces) {
+                writer.append(trace);
+            }
+        }
+        return file;
+    }
+
+    private static void assertSameTrace(final IGPSTrace expected, final IGPSTrace actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 0d);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 0d);
+            assertEquals(expected.getTime(i), actual.getTime(i), 0d);
+        }
+    }
+
+    private static IGPSTrace serializeAndBack(final IGPSTrace trace) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(trace);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (IGPSTrace) in.readObject();
+        }
+    }
+
+    /**
+     * @throws IOException if test fails
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final List<IGPSTrace> traces = randomTraces(new Random(0));
+        final File file = write(traces);
+        assertTrue(MappedGPSTrace.isTraceFile(file));
+        final List<IGPSTrace> single = MappedGPSTrace.load(file);
+        final List<IGPSTrace> split = MappedGPSTrace.load(file, MAX_MAPPING);
+        assertEquals(traces.size(), single.size());
+        assertEquals(traces.size(), split.size());
+        for (int i = 0; i < traces.size(); i++) {
+            final IGPSTrace sorted = ColumnarGPSTrace.copyOf(traces.get(i), false);
+            assertSameTrace(sorted, single.get(i));
+            assertSameTrace(sorted, split.get(i));
+        }
+    }
+
+    /**
+     * @throws IOException if test fails
+     */
+    @Test(expected = IOException.class)
+    public void testTraceLargerThanMapping() throws IOException {
+        MappedGPSTrace.load(write(randomTraces(new Random(1))), SAMPLE_SIZE);
+    }
+
+    /**
+     * @throws IOException if test fails
+     */
+    @Test
+    public void testNotATraceFile() throws IOException {
+        final File file = File.createTempFile("traces", ".bin");
+        file.deleteOnExit();
+        assertFalse(MappedGPSTrace.isTraceFile(file));
+    }
+
+    /**
+     * @throws IOException if test fails
+     */
+    @Test
+    public void testFilterViews() throws IOException {
+        final List<IGPSTrace> sources = randomTraces(new Random(3));
+        sources.addAll(MappedGPSTrace.load(write(sources)));
+        for (final IGPSTrace source : sources) {
+            final IGPSTrace filtered = source.filter(FILTER_TIME);
+            final IGPSTrace expected = ColumnarGPSTrace.copyOf(filtered, false);
+            /*
+             * Normalizing the source leaves the view alone, and vice versa
+             */
+            source.normalizeTimes(FILTER_TIME);
+            assertSameTrace(expected, filtered);
+            filtered.normalizeTimes(-FILTER_TIME);
+            for (int i = 0; i < filtered.size(); i++) {
+                assertEquals(expected.getTime(i) + FILTER_TIME, filtered.getTime(i), 0d);
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if test fails
+     * @throws ClassNotFoundException if test fails
+     */
+    @Test
+    public void testWriteReplace() throws IOException, ClassNotFoundException {
+        final File file = write(randomTraces(new Random(2)));
+        for (final IGPSTrace trace : MappedGPSTrace.load(file, MAX_MAPPING)) {
+            final IGPSTrace copy = serializeAndBack(trace);
+            assertTrue(copy instanceof ColumnarGPSTrace);
+            assertSameTrace(trace, copy);
+            /*
+             * Filtered and normalized traces carry their time offset along
+             */
+            final IGPSTrace filtered = trace.filter(FILTER_TIME);
+            filtered.normalizeTimes(-1);
+            assertSameTrace(filtered, serializeAndBack(filtered));
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import it.unibo.alchemist.model.implementations.environments.OSMEnvironment;
+import it.unibo.alchemist.model.implementations.environments.OSMEnvironmentOptions;
+import it.unibo.alchemist.model.implementations.nodes.GenericNode;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition.DistanceFormula;
+import it.unibo.alchemist.model.implementations.times.DoubleTime;
+import it.unibo.alchemist.model.interfaces.IRoute;
+import it.unibo.alchemist.model.interfaces.Node;
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.model.interfaces.Vehicle;
+
+/**
+ */
+public class TestOSMEnvironment {
+
+    private static final String TESTMAP = "/maps/cesena.pbf";
+    /*
+     * Within the bounds of the test map
+     */
+    private static final double MINLAT = 44.12;
+    private static final double MAXLAT = 44.155;
+    private static final double MINLON = 12.215;
+    private static final double MAXLON = 12.275;
+    private static final int ROUTES = 40;
+    private static final int THREADS = 4;
+    private static final int NETWORK_POSITIONS = 12;
+    private static final double MAX_NETWORK_DISTANCE = 1500;
+    /*
+     * GraphHopper and Alchemist measure distances on slightly different
+     * spheres, and the graph stores rounded edge lengths
+     */
+    private static final double RELATIVE_TOLERANCE = 1e-3;
+    private static final double TOLERANCE = 1;
+    private static final int NODES = 50;
+    /*
+     * Batch distances may convert degrees with a different library
+     */
+    private static final double DISTANCES_TOLERANCE = 1e-6;
+    private static final double EXPIRATION = 10;
+    private OSMEnvironment<Object> env;
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = "DMI_HARDCODED_ABSOLUTE_FILENAME", justification = "It is a resource path, not an absolute pathname.")
+    @Before
+    public void setUp() throws ClassNotFoundException, IOException {
+        try {
+            env = new OSMEnvironment<>(TESTMAP, true, true);
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private static Position randomPosition(final Random rnd) {
+        return new LatLongPosition(MINLAT + rnd.nextDouble() * (MAXLAT - MINLAT), MINLON + rnd.nextDouble() * (MAXLON - MINLON));
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testBatchRoutesOrder() {
+        final Random rnd = new Random(0);
+        final List<Pair<Position, Position>> endpoints = new ArrayList<>(ROUTES);
+        for (int i = 0; i < ROUTES; i++) {
+            /*
+             * Some pairs are repeated, to check duplicates as well
+             */
+            endpoints.add(i % 5 == 4 ? endpoints.get(rnd.nextInt(i)) : new ImmutablePair<>(randomPosition(rnd), randomPosition(rnd)));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            env.setRoutingExecutor(executor);
+            final List<IRoute> routes = env.computeRoutes(endpoints);
+            assertEquals(ROUTES, routes.size());
+            for (int i = 0; i < ROUTES; i++) {
+                final Pair<Position, Position> pair = endpoints.get(i);
+                final IRoute expected = env.computeRoute(pair.getLeft(), pair.getRight());
+                assertEquals(expected.getDistance(), routes.get(i).getDistance(), 0d);
+                assertEquals(expected.getPointsNumber(), routes.get(i).getPointsNumber());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testNetworkDistances() {
+        final Random rnd = new Random(1);
+        final List<Position> origins = new ArrayList<>(NETWORK_POSITIONS);
+        final List<Position> targets = new ArrayList<>(NETWORK_POSITIONS);
+        for (int i = 0; i < NETWORK_POSITIONS; i++) {
+            origins.add(randomPosition(rnd));
+            targets.add(randomPosition(rnd));
+        }
+        final double[][] distances = env.computeNetworkDistances(origins, targets, MAX_NETWORK_DISTANCE, Vehicle.FOOT);
+        int found = 0;
+        for (int i = 0; i < origins.size(); i++) {
+            for (int j = 0; j < targets.size(); j++) {
+                final double distance = distances[i][j];
+                if (!Double.isInfinite(distance)) {
+                    found++;
+                    assertTrue(distance <= MAX_NETWORK_DISTANCE);
+                    /*
+                     * The route is the fastest, and can not be shorter than
+                     * the shortest path, once the legs out of the streets are
+                     * added
+                     */
+                    final IRoute route = env.computeRoute(origins.get(i), targets.get(j), Vehicle.FOOT);
+                    final double offStreets = origins.get(i).getDistanceTo(route.getPoint(0))
+                            + targets.get(j).getDistanceTo(route.getPoint(route.getPointsNumber() - 1));
+                    final double routeDistance = route.getDistance() + offStreets;
+                    assertTrue(distance + " instead of at most " + routeDistance,
+                            distance <= routeDistance * (1 + RELATIVE_TOLERANCE) + TOLERANCE);
+                }
+            }
+        }
+        assertTrue(found > origins.size());
+    }
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = "DMI_HARDCODED_ABSOLUTE_FILENAME", justification = "It is a resource path, not an absolute pathname.")
+    @Test
+    public void testSimulationTimeExpiration() throws ClassNotFoundException, IOException {
+        final OSMEnvironment<Object> expiringEnv = new OSMEnvironment<>(TESTMAP, null, 0, true, true, false,
+                new OSMEnvironmentOptions().routeCacheExpiration(EXPIRATION));
+        final Random rnd = new Random(4);
+        final Position from = randomPosition(rnd);
+        final Position to = randomPosition(rnd);
+        final IRoute route = expiringEnv.computeRoute(from, to);
+        expiringEnv.setSimulationTime(new DoubleTime(EXPIRATION / 2));
+        assertSame(route, expiringEnv.computeRoute(from, to));
+        /*
+         * Going back in time does not expire anything
+         */
+        expiringEnv.setSimulationTime(new DoubleTime(0));
+        expiringEnv.setSimulationTime(new DoubleTime(EXPIRATION));
+        assertSame(route, expiringEnv.computeRoute(from, to));
+        expiringEnv.setSimulationTime(new DoubleTime(EXPIRATION * 3));
+        assertNotSame(route, expiringEnv.computeRoute(from, to));
+    }
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = "DMI_HARDCODED_ABSOLUTE_FILENAME", justification = "It is a resource path, not an absolute pathname.")
+    @Test
+    public void testUnroutableEndpoint() throws ClassNotFoundException, IOException {
+        final Position street = randomPosition(new Random(3));
+        /*
+         * In the middle of the ocean, far from any street of the map
+         */
+        final Position ocean = new LatLongPosition(0, 0);
+        for (final boolean snap : new boolean[] { false, true }) {
+            final OSMEnvironment<Object> snapEnv = new OSMEnvironment<>(TESTMAP, null, 0, true, true, false,
+                    new OSMEnvironmentOptions().snapRoutes(snap));
+            for (final Vehicle vehicle : new Vehicle[] { Vehicle.FOOT, Vehicle.CAR }) {
+                assertTrue(Double.isNaN(snapEnv.computeRouteDistance(street, ocean, vehicle)));
+                assertTrue(Double.isNaN(snapEnv.computeRouteTime(ocean, street, vehicle)));
+                final IRoute route = snapEnv.computeRoute(street, ocean, vehicle);
+                assertEquals(0, route.getPointsNumber());
+                assertTrue(Double.isNaN(route.getDistance()));
+                assertTrue(Double.isNaN(route.getTime()));
+                /*
+                 * Known routes give the metrics of the failure as well
+                 */
+                assertTrue(Double.isNaN(snapEnv.computeRouteDistance(street, ocean, vehicle)));
+                assertTrue(Double.isNaN(snapEnv.computeRouteTime(street, ocean, vehicle)));
+            }
+        }
+    }
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = {"DMI_HARDCODED_ABSOLUTE_FILENAME", "SIC_INNER_SHOULD_BE_STATIC_ANON"},
+        justification = "It is a resource path, not an absolute pathname.")
+    @Test
+    public void testDistanceFormula() throws ClassNotFoundException, IOException {
+        for (final DistanceFormula formula : DistanceFormula.values()) {
+            final Random rnd = new Random(2);
+            final OSMEnvironment<Object> formulaEnv = new OSMEnvironment<>(TESTMAP, null, 0, false, false, false,
+                    new OSMEnvironmentOptions().distanceFormula(formula));
+            final List<Node<Object>> nodes = new ArrayList<>(NODES);
+            for (int i = 0; i < NODES; i++) {
+                final Node<Object> node = new GenericNode<Object>(formulaEnv) {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected Object createT() {
+                        return null;
+                    }
+                };
+                /*
+                 * Positions are converted whatever their formula
+                 */
+                formulaEnv.addNode(node, new LatLongPosition(MINLAT + rnd.nextDouble() * (MAXLAT - MINLAT),
+                        MINLON + rnd.nextDouble() * (MAXLON - MINLON), DistanceFormula.values()[i % DistanceFormula.values().length]));
+                nodes.add(node);
+            }
+            for (final Node<Object> node : nodes) {
+                assertEquals(formula, ((LatLongPosition) formulaEnv.getPosition(node)).getDistanceFormula());
+            }
+            final Node<Object> center = nodes.get(0);
+            final double[] distances = formulaEnv.getDistances(center, nodes);
+            for (int i = 0; i < NODES; i++) {
+                assertEquals(formulaEnv.getPosition(center).getDistanceTo(formulaEnv.getPosition(nodes.get(i))), distances[i], DISTANCES_TOLERANCE);
+            }
+        }
+    }
+
+}
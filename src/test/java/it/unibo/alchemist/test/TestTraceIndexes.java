@@ -0,0 +1,235 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.implementations.MappedGPSTrace;
+import it.unibo.alchemist.model.implementations.environments.OSMEnvironment;
+import it.unibo.alchemist.model.implementations.positions.LatLongPosition;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.ITraceSampleRange;
+import it.unibo.alchemist.model.interfaces.Position;
+
+/**
+ */
+public class TestTraceIndexes {
+
+    private static final String TESTMAP = "/maps/cesena.pbf";
+    /*
+     * Within the bounds of the test map
+     */
+    private static final double MINLAT = 44.12;
+    private static final double MAXLAT = 44.155;
+    private static final double MINLON = 12.215;
+    private static final double MAXLON = 12.275;
+    private static final int TRACES = 200;
+    private static final int MAX_POINTS = 100;
+    private static final double MAX_START = 10000;
+    private static final double MAX_STEP = 60;
+    private static final int QUERIES = 500;
+    private static final int BOXES = 200;
+    private static final double POINT_BOX = 1e-5;
+    private List<IGPSTrace> traces;
+    private OSMEnvironment<Object> env;
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = "DMI_HARDCODED_ABSOLUTE_FILENAME", justification = "It is a resource path, not an absolute pathname.")
+    @Before
+    public void setUp() throws ClassNotFoundException, IOException {
+        final Random rnd = new Random(0);
+        traces = new ArrayList<>(TRACES);
+        for (int id = 0; id < TRACES; id++) {
+            /*
+             * Empty traces are dropped by the environment
+             */
+            final int size = 1 + rnd.nextInt(MAX_POINTS);
+            final double[] latitudes = new double[size];
+            final double[] longitudes = new double[size];
+            final double[] times = new double[size];
+            double time = rnd.nextDouble() * MAX_START;
+            for (int i = 0; i < size; i++) {
+                latitudes[i] = MINLAT + rnd.nextDouble() * (MAXLAT - MINLAT);
+                longitudes[i] = MINLON + rnd.nextDouble() * (MAXLON - MINLON);
+                times[i] = time;
+                time += rnd.nextDouble() * MAX_STEP;
+            }
+            traces.add(new ColumnarGPSTrace(id, latitudes, longitudes, times));
+        }
+        final File file = File.createTempFile("traces", ".bin");
+        file.deleteOnExit();
+        try (MappedGPSTrace.Writer writer = new MappedGPSTrace.Writer(file)) {
+            for (final IGPSTrace trace : traces) {
+                writer.append(trace);
+            }
+        }
+        try {
+            env = new OSMEnvironment<>(TESTMAP, file.getAbsolutePath(), 0, true);
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private static double start(final IGPSTrace trace) {
+        return trace.getTime(0);
+    }
+
+    private static double end(final IGPSTrace trace) {
+        return trace.getTime(trace.size() - 1);
+    }
+
+    /*
+     * Ties can be returned in any order: ids are compared as sets, and the
+     * order is checked on the sort key
+     */
+    private void assertWindow(final int[] actual, final Predicate<IGPSTrace> filter, final boolean byStart) {
+        final int[] expected = traces.stream().filter(filter).mapToInt(IGPSTrace::getId).sorted().toArray();
+        final int[] sorted = Arrays.copyOf(actual, actual.length);
+        Arrays.sort(sorted);
+        assertArrayEquals(expected, sorted);
+        for (int i = 1; i < actual.length; i++) {
+            final IGPSTrace prev = traces.get(actual[i - 1]);
+            final IGPSTrace next = traces.get(actual[i]);
+            assertTrue(byStart ? start(prev) <= start(next) : end(prev) <= end(next));
+        }
+    }
+
+    private static double randomTime(final Random rnd) {
+        return (rnd.nextDouble() * 1.2 - 0.1) * (MAX_START + MAX_POINTS * MAX_STEP);
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testTimeIndex() {
+        final Random rnd = new Random(1);
+        for (int q = 0; q < QUERIES; q++) {
+            final double a = randomTime(rnd);
+            /*
+             * Some windows are a single instant, some are inverted
+             */
+            final double b = q % 10 == 0 ? a : a + rnd.nextDouble() * MAX_START / 10;
+            final double from = q % 10 == 1 ? b : a;
+            final double to = q % 10 == 1 ? a : b;
+            assertWindow(env.getActiveTraces(from, to), t -> start(t) <= to && end(t) >= from, true);
+            assertWindow(env.getStartingTraces(from, to), t -> start(t) >= from && start(t) <= to, true);
+            assertWindow(env.getEndingTraces(from, to), t -> end(t) >= from && end(t) <= to, false);
+        }
+        /*
+         * Exactly on the bounds of a trace
+         */
+        for (final IGPSTrace trace : traces) {
+            assertTrue(Arrays.stream(env.getStartingTraces(start(trace), start(trace))).anyMatch(id -> id == trace.getId()));
+            assertTrue(Arrays.stream(env.getEndingTraces(end(trace), end(trace))).anyMatch(id -> id == trace.getId()));
+            assertTrue(Arrays.stream(env.getActiveTraces(end(trace), end(trace))).anyMatch(id -> id == trace.getId()));
+        }
+    }
+
+    private static double randomBetween(final Random rnd, final double min, final double max) {
+        return min + rnd.nextDouble() * (max - min);
+    }
+
+    /*
+     * Maximal ranges of consecutive points within the box and the window,
+     * sorted by node id and index, as "id[from, to)"
+     */
+    private List<String> bruteForce(final Position corner, final Position opposite, final double from, final double to) {
+        final double minLat = Math.min(corner.getCoordinate(1), opposite.getCoordinate(1));
+        final double maxLat = Math.max(corner.getCoordinate(1), opposite.getCoordinate(1));
+        final double minLon = Math.min(corner.getCoordinate(0), opposite.getCoordinate(0));
+        final double maxLon = Math.max(corner.getCoordinate(0), opposite.getCoordinate(0));
+        final List<String> result = new ArrayList<>();
+        for (final IGPSTrace trace : traces) {
+            int start = -1;
+            for (int i = 0; i <= trace.size(); i++) {
+                final boolean inside = i < trace.size()
+                        && trace.getLatitude(i) >= minLat && trace.getLatitude(i) <= maxLat
+                        && trace.getLongitude(i) >= minLon && trace.getLongitude(i) <= maxLon
+                        && trace.getTime(i) >= from && trace.getTime(i) <= to;
+                if (inside && start < 0) {
+                    start = i;
+                } else if (!inside && start >= 0) {
+                    result.add(trace.getId() + "[" + start + ", " + i + ")");
+                    start = -1;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void assertSamples(final Position corner, final Position opposite, final double from, final double to) {
+        final List<String> actual = new ArrayList<>();
+        for (final ITraceSampleRange range : env.getTraceSamples(corner, opposite, from, to)) {
+            actual.add(range.getNodeId() + "[" + range.getFrom() + ", " + range.getTo() + ")");
+        }
+        assertEquals(bruteForce(corner, opposite, from, to), actual);
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testGridIndex() {
+        final Random rnd = new Random(2);
+        final double latSpan = MAXLAT - MINLAT;
+        final double lonSpan = MAXLON - MINLON;
+        for (int q = 0; q < BOXES; q++) {
+            /*
+             * Boxes range from a small fraction of the data bounds to well
+             * beyond them, and are given by any pair of opposite corners
+             */
+            final double scale = Math.pow(10, -2 * rnd.nextDouble());
+            final double lat = randomBetween(rnd, MINLAT - latSpan / 2, MAXLAT + latSpan / 2);
+            final double lon = randomBetween(rnd, MINLON - lonSpan / 2, MAXLON + lonSpan / 2);
+            final double dLat = (2 * rnd.nextDouble() - 1) * latSpan * scale;
+            final double dLon = (2 * rnd.nextDouble() - 1) * lonSpan * scale;
+            final double from = randomTime(rnd);
+            final double to = q % 4 == 0 ? from + MAX_START * 2 : from + rnd.nextDouble() * MAX_START * scale;
+            assertSamples(new LatLongPosition(lat, lon), new LatLongPosition(lat + dLat, lon + dLon), from, to);
+        }
+        /*
+         * Everything, nothing, and boxes entirely out of the data bounds
+         */
+        final double end = MAX_START * 2 + MAX_POINTS * MAX_STEP;
+        assertSamples(new LatLongPosition(MINLAT - 1, MINLON - 1), new LatLongPosition(MAXLAT + 1, MAXLON + 1), -end, end);
+        assertSamples(new LatLongPosition(MINLAT - 1, MINLON - 1), new LatLongPosition(MAXLAT + 1, MAXLON + 1), end, end * 2);
+        assertSamples(new LatLongPosition(MINLAT - 1, MINLON - 1), new LatLongPosition(MAXLAT + 1, MAXLON + 1), end, -end);
+        assertSamples(new LatLongPosition(MAXLAT + 1, MINLON), new LatLongPosition(MAXLAT + 2, MAXLON), -end, end);
+        assertSamples(new LatLongPosition(MINLAT, MINLON - 2), new LatLongPosition(MAXLAT, MINLON - 1), -end, end);
+        assertSamples(new LatLongPosition(MINLAT - 2, MAXLON + 1), new LatLongPosition(MINLAT - 1, MAXLON + 2), -end, end);
+        /*
+         * Tiny boxes around some points, at their very time
+         */
+        for (final IGPSTrace trace : traces) {
+            for (int i = 0; i < trace.size(); i += 10) {
+                final double lat = trace.getLatitude(i);
+                final double lon = trace.getLongitude(i);
+                final double time = trace.getTime(i);
+                final Position corner = new LatLongPosition(lat - POINT_BOX, lon - POINT_BOX);
+                final Position opposite = new LatLongPosition(lat + POINT_BOX, lon + POINT_BOX);
+                assertFalse(env.getTraceSamples(corner, opposite, time, time).isEmpty());
+                assertSamples(corner, opposite, time, time);
+            }
+        }
+    }
+
+}
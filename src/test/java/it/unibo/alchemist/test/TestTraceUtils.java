@@ -0,0 +1,153 @@
+package it.unibo.alchemist.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import it.unibo.alchemist.model.implementations.ColumnarGPSTrace;
+import it.unibo.alchemist.model.implementations.MappedGPSTrace;
+import it.unibo.alchemist.model.implementations.environments.OSMEnvironment;
+import it.unibo.alchemist.model.implementations.nodes.GenericNode;
+import it.unibo.alchemist.model.implementations.times.DoubleTime;
+import it.unibo.alchemist.model.interfaces.IGPSTrace;
+import it.unibo.alchemist.model.interfaces.Node;
+import it.unibo.alchemist.model.interfaces.Position;
+import it.unibo.alchemist.utils.MapUtils;
+import it.unibo.alchemist.utils.TraceUtils;
+
+/**
+ */
+public class TestTraceUtils {
+
+    private static final String TESTMAP = "/maps/cesena.pbf";
+    /*
+     * Rocca Malatestiana, and close to the antimeridian, in the Fiji islands
+     */
+    private static final double[][] STARTS = { { 44.13581, 12.2403 }, { -16.5, 179.99 } };
+    private static final int POINTS = 1000;
+    private static final double STEP_TIME = 10;
+    private static final double STEP = 15;
+    private static final double MAX_TURN = 10;
+    private static final double MAX_DISTANCE = 10;
+    private static final int QUERIES = 5000;
+    /*
+     * Expected positions are truncated to the microdegree
+     */
+    private static final double TOLERANCE = 0.5;
+    private OSMEnvironment<Object> env;
+    private final List<Node<Object>> nodes = new ArrayList<>();
+
+    private static IGPSTrace randomWalk(final Random rnd, final int id, final double[] start) {
+        final double[] latitudes = new double[POINTS];
+        final double[] longitudes = new double[POINTS];
+        final double[] times = new double[POINTS];
+        final double[] position = start.clone();
+        double bearing = rnd.nextDouble() * 360;
+        for (int i = 0; i < POINTS; i++) {
+            latitudes[i] = position[0];
+            longitudes[i] = position[1];
+            times[i] = i * STEP_TIME;
+            bearing += (2 * rnd.nextDouble() - 1) * MAX_TURN;
+            MapUtils.travel(position[0], position[1], bearing, STEP * (1 + rnd.nextGaussian() / 10), position);
+        }
+        return new ColumnarGPSTrace(id, latitudes, longitudes, times);
+    }
+
+    /**
+     * @throws ClassNotFoundException if test fails
+     * @throws IOException if test fails
+     */
+    @SuppressFBWarnings(value = {"DMI_HARDCODED_ABSOLUTE_FILENAME", "SIC_INNER_SHOULD_BE_STATIC_ANON"},
+        justification = "It is a resource path, not an absolute pathname.")
+    @Before
+    public void setUp() throws ClassNotFoundException, IOException {
+        final Random rnd = new Random(0);
+        final File file = File.createTempFile("traces", ".bin");
+        file.deleteOnExit();
+        /*
+         * Trace ids are generated in the order of the file: each original is
+         * followed by its simplified version
+         */
+        try (MappedGPSTrace.Writer writer = new MappedGPSTrace.Writer(file)) {
+            for (int i = 0; i < STARTS.length; i++) {
+                final IGPSTrace original = randomWalk(rnd, i, STARTS[i]);
+                final IGPSTrace simple = TraceUtils.simplify(original, MAX_DISTANCE, 0);
+                assertTrue(simple.size() < original.size() / 2);
+                writer.append(original);
+                writer.append(simple);
+            }
+        }
+        try {
+            env = new OSMEnvironment<>(TESTMAP, file.getAbsolutePath(), 0);
+            for (int i = 0; i < 2 * STARTS.length; i++) {
+                nodes.add(new GenericNode<Object>(env) {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected Object createT() {
+                        return null;
+                    }
+                });
+            }
+        } catch (IllegalStateException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testSimplifiedExpectedPositions() {
+        final Random rnd = new Random(1);
+        for (int i = 0; i < STARTS.length; i++) {
+            final Node<Object> original = nodes.get(2 * i);
+            final Node<Object> simple = nodes.get(2 * i + 1);
+            assertNotNull(env.getTrace(original));
+            assertNotNull(env.getTrace(simple));
+            for (int q = 0; q < QUERIES; q++) {
+                final DoubleTime time = new DoubleTime(rnd.nextDouble() * POINTS * STEP_TIME);
+                final Position expected = env.getExpectedPosition(original, time);
+                final Position actual = env.getExpectedPosition(simple, time);
+                final double error = MapUtils.getDistance(
+                        expected.getCoordinate(1), expected.getCoordinate(0),
+                        actual.getCoordinate(1), actual.getCoordinate(0));
+                assertTrue(actual + " instead of " + expected + " at " + time.toDouble(), error <= MAX_DISTANCE + TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testAntimeridian() {
+        /*
+         * Straight east at constant speed, across the antimeridian: only the
+         * ends are needed
+         */
+        final double[] latitudes = new double[POINTS];
+        final double[] longitudes = new double[POINTS];
+        final double[] times = new double[POINTS];
+        final double[] position = { -16.5, 179.9 };
+        for (int i = 0; i < POINTS; i++) {
+            latitudes[i] = position[0];
+            longitudes[i] = position[1];
+            times[i] = i * STEP_TIME;
+            MapUtils.travel(position[0], position[1], 90, STEP, position);
+        }
+        assertTrue(longitudes[POINTS - 1] < 0);
+        assertEquals(2, TraceUtils.simplify(new ColumnarGPSTrace(0, latitudes, longitudes, times), MAX_DISTANCE, 0).size());
+    }
+
+}